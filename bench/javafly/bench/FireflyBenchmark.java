@@ -0,0 +1,206 @@
+package javafly.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javafly.FireflyRuntime;
+import javafly.example.simplefly.Action;
+import javafly.example.simplefly.Environment;
+import javafly.example.simplefly.Generator;
+import javafly.example.simplefly.Generator.Topology;
+import javafly.example.simplefly.SimpleFly;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * JMH benchmarks of the decision engine, run on populations of SimpleFly
+ * agents.
+ * </p>
+ *
+ * <p>
+ * Each benchmark is run for every topology and size (the populations are
+ * built by the simplefly {@link Generator}). The operations on a single agent
+ * cycle over the agents of the population, and are measured both in
+ * throughput and in sample time mode, which gives the percentiles of their
+ * latency. The convergence benchmark runs the whole system until no agent
+ * acts anymore, and is measured in average time. The allocation rate and the
+ * allocated bytes per operation are given by the gc profiler of JMH.
+ * </p>
+ *
+ * <p>
+ * Usage, once the benchmarks are packaged with <code>mvn -Pbench package</code>
+ * (all the options are optional):
+ * </p>
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar FireflyBenchmark.decision -prof gc
+ *     -p topology=CHAIN,RING,LATTICE_2D,LATTICE_3D,ERDOS_RENYI,SCALE_FREE
+ *     -p size=4,1000,100000,1000000
+ * </pre>
+ *
+ * <p>
+ * The available benchmarks are decision, actionComparator,
+ * criticalitiesComparator, act and convergence.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FireflyBenchmark {
+
+	/**
+	 * the maximal number of rounds of a convergence run
+	 */
+	private static final int MAX_ROUNDS = 10_000;
+
+	@Param({ "CHAIN", "RING", "LATTICE_2D", "ERDOS_RENYI" })
+	public Topology topology;
+
+	@Param({ "4", "1000" })
+	public int size;
+
+	@Param("42")
+	public long seed;
+
+	private Environment env;
+
+	private List<SimpleFly> agents;
+
+	/*
+	 * the agents which have two possible actions, along with these actions
+	 * and their predicted criticalities
+	 */
+	private List<SimpleFly> comparing;
+	private List<Action> firstActions;
+	private List<Action> secondActions;
+	private List<List<Double>> firstCriticalities;
+	private List<List<Double>> secondCriticalities;
+
+	/*
+	 * the agents which act in the generated environment, along with their
+	 * actions
+	 */
+	private List<SimpleFly> acting;
+	private List<Set<Action>> decisions;
+
+	/**
+	 * The position of the next agent of a benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int next = 0;
+
+		/**
+		 * @return the next position, cycling between 0 and n (excluded)
+		 */
+		int next(int n) {
+			int i = next;
+			next = i + 1 < n ? i + 1 : 0;
+			return i;
+		}
+
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		env = new Generator(topology, size).withSeed(seed).generate();
+		agents = new ArrayList<>(env.refs.values());
+
+		comparing = new ArrayList<>();
+		firstActions = new ArrayList<>();
+		secondActions = new ArrayList<>();
+		firstCriticalities = new ArrayList<>();
+		secondCriticalities = new ArrayList<>();
+		acting = new ArrayList<>();
+		decisions = new ArrayList<>();
+
+		for (SimpleFly agent : agents) {
+			Set<Action> possible = agent.possibleActions(env);
+			if (possible.size() == 2) {
+				Iterator<Action> it = possible.iterator();
+				Action first = it.next();
+				Action second = it.next();
+				comparing.add(agent);
+				firstActions.add(first);
+				secondActions.add(second);
+				firstCriticalities.add(agent.predictedCriticalities(env,
+						Collections.singleton(first)));
+				secondCriticalities.add(agent.predictedCriticalities(env,
+						Collections.singleton(second)));
+			}
+
+			Set<Action> actions = agent.decision(env);
+			if (!actions.isEmpty()) {
+				acting.add(agent);
+				decisions.add(actions);
+			}
+		}
+
+		if (comparing.isEmpty() || acting.isEmpty()) {
+			throw new IllegalStateException("nothing to benchmark for "
+					+ topology + " " + size);
+		}
+	}
+
+	@Benchmark
+	public Set<Action> decision(Cursor cursor) {
+		return agents.get(cursor.next(agents.size())).decision(env);
+	}
+
+	@Benchmark
+	public int actionComparator(Cursor cursor) {
+		int i = cursor.next(comparing.size());
+		return comparing.get(i)
+				.actionComparator(env, Collections.<Action> emptySet())
+				.compare(firstActions.get(i), secondActions.get(i));
+	}
+
+	@Benchmark
+	public int criticalitiesComparator(Cursor cursor) {
+		int i = cursor.next(comparing.size());
+		return comparing.get(i).criticalitiesComparator()
+				.compare(firstCriticalities.get(i), secondCriticalities.get(i));
+	}
+
+	@Benchmark
+	public Environment act(Cursor cursor) {
+		int i = cursor.next(acting.size());
+		return acting.get(i).act(env, decisions.get(i));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int convergence() {
+		FireflyRuntime<Environment, Action, Double, SimpleFly> runtime = new FireflyRuntime<>(
+				agents, env);
+		while (!runtime.isQuiescent() && runtime.rounds() < MAX_ROUNDS) {
+			runtime.round();
+		}
+		return runtime.rounds();
+	}
+
+}
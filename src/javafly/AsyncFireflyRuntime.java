@@ -0,0 +1,404 @@
+package javafly;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Runs a system of agents asynchronously: each agent runs its own
+ * decide/act loop, without waiting for the other agents.
+ * </p>
+ *
+ * <p>
+ * The environment is shared through an atomic reference. An agent decides in
+ * the current environment, applies its actions to it, then publishes the new
+ * environment with a compare-and-set. If another agent published an
+ * environment meanwhile, the decision is discarded and the agent decides
+ * again in the new environment. Since the agents are pure decision functions
+ * and the environments are immutable, no lock is needed.
+ * </p>
+ *
+ * <p>
+ * The loop of an agent stops as soon as it decides to do nothing, and the
+ * agent only runs again when an agent acting in its neighborhood wakes it up
+ * (the predicted neighbors of the acting agent and their own neighbors are
+ * woken up, as in {@link FireflyRuntime}). The idle agents thus cost nothing,
+ * and the agents of the quiet regions of the system never decide. The system
+ * is quiescent when no agent runs anymore. The predicted neighbors which are
+ * not managed by the runtime are ignored.
+ * </p>
+ *
+ * <p>
+ * The notifications of an action are deduplicated, so that an agent close to
+ * several neighbors of the acting agent is woken up once. The notifications
+ * received by an agent while it runs are coalesced: it runs again once, in
+ * the environment published last.
+ * </p>
+ *
+ * <p>
+ * Each run of an agent is a task submitted to the given executor. On Java 21
+ * and later, an executor creating a virtual thread per task
+ * (Executors.newVirtualThreadPerTaskExecutor()) gives each active agent its
+ * own thread at a negligible cost. With a pool of platform threads, the
+ * active agents share the threads of the pool.
+ * </p>
+ *
+ * <p>
+ * Contrary to the rounds of {@link FireflyRuntime}, the result depends on the
+ * scheduling of the agents.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <Env>
+ *            the environment of the agents
+ * @param <Action>
+ *            the type of actions available to the agents
+ * @param <Criticality>
+ *            the criticality representation
+ * @param <Agent>
+ *            the type of the agents
+ */
+public final class AsyncFireflyRuntime<Env, Action extends Function<Env, Env>, Criticality extends Comparable<Criticality>, Agent extends Firefly<Env, Action, Criticality, Agent>> {
+
+	/*
+	 * the states of the agents
+	 */
+	private static final int IDLE = 0;
+	private static final int RUNNING = 1;
+	private static final int WOKEN = 2;
+
+	private final List<Agent> agents;
+
+	/**
+	 * maps the agents to their position in the list of agents
+	 */
+	private final Map<Agent, Integer> indices = new HashMap<>();
+
+	/**
+	 * the executor running the loops of the agents
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * the current environment
+	 */
+	private final AtomicReference<Env> env;
+
+	/**
+	 * the state of each agent: idle, running, or running and woken up by a
+	 * neighbor during its run
+	 */
+	private final AtomicIntegerArray states;
+
+	/**
+	 * the number of agents which are not idle
+	 */
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final LongAdder decisions = new LongAdder();
+	private final LongAdder commits = new LongAdder();
+	private final LongAdder conflicts = new LongAdder();
+	private final LongAdder notifications = new LongAdder();
+	private final LongAdder wakeUps = new LongAdder();
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * the first exception thrown by an agent, or null
+	 */
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+	/**
+	 * @param agents
+	 *            the agents
+	 * @param env
+	 *            the initial environment
+	 * @param executor
+	 *            the executor running the loops of the agents
+	 */
+	public AsyncFireflyRuntime(Collection<Agent> agents, Env env,
+			ExecutorService executor) {
+		this.agents = Collections.unmodifiableList(new ArrayList<>(agents));
+		this.env = new AtomicReference<>(env);
+		this.executor = executor;
+		this.states = new AtomicIntegerArray(this.agents.size());
+
+		for (int i = 0; i < this.agents.size(); i++) {
+			indices.put(this.agents.get(i), i);
+		}
+	}
+
+	/**
+	 * @return the agents
+	 */
+	public List<Agent> agents() {
+		return agents;
+	}
+
+	/**
+	 * @return the current environment
+	 */
+	public Env env() {
+		return env.get();
+	}
+
+	/**
+	 * @return the number of decisions made so far
+	 */
+	public long decisions() {
+		return decisions.sum();
+	}
+
+	/**
+	 * @return the number of environments published so far, that is the number
+	 *         of times an agent applied its actions
+	 */
+	public long commits() {
+		return commits.sum();
+	}
+
+	/**
+	 * @return the number of decisions discarded because another agent
+	 *         published an environment meanwhile
+	 */
+	public long conflicts() {
+		return conflicts.sum();
+	}
+
+	/**
+	 * @return the number of notifications sent by the agents which acted to
+	 *         the agents whose decision may change
+	 */
+	public long notifications() {
+		return notifications.sum();
+	}
+
+	/**
+	 * @return the number of times an idle agent was started
+	 */
+	public long wakeUps() {
+		return wakeUps.sum();
+	}
+
+	/**
+	 * @return true if no agent runs, in which case no agent will act unless
+	 *         it is woken up
+	 */
+	public boolean isQuiescent() {
+		return active.get() == 0;
+	}
+
+	/**
+	 * Starts the loops of all the agents.
+	 */
+	public void start() {
+		wake(agents);
+	}
+
+	/**
+	 * Wakes up the given agents, for instance after a modification of the
+	 * environment made outside the runtime. The agents not managed by the
+	 * runtime are ignored.
+	 *
+	 * @param toWake
+	 *            the agents to wake up
+	 */
+	public void wake(Collection<Agent> toWake) {
+		for (Agent agent : toWake) {
+			wake(agent);
+		}
+	}
+
+	/**
+	 * Stops the runtime: the agents stop after their current decision, and
+	 * are not woken up anymore. The executor is not shut down.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Waits until the system is quiescent, or until the runtime is stopped
+	 * and all the running agents have finished.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return true if no agent runs anymore, false if the timeout elapsed
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting
+	 * @throws ExecutionException
+	 *             if an agent threw an exception, in which case the runtime
+	 *             is stopped
+	 */
+	public boolean awaitQuiescence(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		synchronized (active) {
+			while (active.get() != 0) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					break;
+				}
+				TimeUnit.NANOSECONDS.timedWait(active, remaining);
+			}
+		}
+
+		Throwable t = failure.get();
+		if (t != null) {
+			throw new ExecutionException(t);
+		}
+		return active.get() == 0;
+	}
+
+	/**
+	 * Wakes up an agent, if it is managed by the runtime. The other agents
+	 * (for instance the ghost copies of agents run by another process) are
+	 * ignored.
+	 */
+	private void wake(Agent agent) {
+		Integer index = indices.get(agent);
+		if (index != null) {
+			wake(index.intValue());
+		}
+	}
+
+	private void wake(int index) {
+		while (!stopped) {
+			int state = states.get(index);
+			if (state == WOKEN) {
+				return;
+			}
+			if (state == RUNNING) {
+				if (states.compareAndSet(index, RUNNING, WOKEN)) {
+					return;
+				}
+			} else if (states.compareAndSet(index, IDLE, RUNNING)) {
+				wakeUps.increment();
+				active.incrementAndGet();
+				try {
+					executor.execute(() -> run(index));
+				} catch (RuntimeException e) {
+					fail(index, e);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The loop of an agent: decides until its decision is published, or until
+	 * it decides to do nothing in the current environment. After acting, the
+	 * agent runs again in a new task, so that an agent which keeps acting does
+	 * not monopolize a thread of the executor.
+	 */
+	private void run(int index) {
+		Agent agent = agents.get(index);
+
+		try {
+			while (!stopped) {
+				// the neighbors which act from now on will wake the agent up
+				states.set(index, RUNNING);
+
+				Env current = env.get();
+				Set<Action> actions = agent.decision(current);
+				decisions.increment();
+
+				if (actions.isEmpty()) {
+					// stop, unless a neighbor acted during the decision
+					if (states.compareAndSet(index, RUNNING, IDLE)) {
+						deactivate();
+						return;
+					}
+					continue;
+				}
+
+				Env newEnv = agent.act(current, actions);
+				if (!env.compareAndSet(current, newEnv)) {
+					// another agent acted meanwhile: decide again
+					conflicts.increment();
+					continue;
+				}
+				commits.increment();
+
+				// the decisions of the agents around it may change
+				notifyDependents(agent, current, newEnv, actions);
+
+				// the agent may act again, after the other waiting agents
+				if (!stopped) {
+					executor.execute(() -> run(index));
+					return;
+				}
+			}
+
+			states.set(index, IDLE);
+			deactivate();
+		} catch (Throwable t) {
+			fail(index, t);
+		}
+	}
+
+	/**
+	 * Wakes up the agents whose decision may change after an agent acted: its
+	 * predicted neighbors and their own neighbors. Each agent is notified
+	 * once.
+	 */
+	private void notifyDependents(Agent agent, Env current, Env newEnv,
+			Set<Action> actions) {
+		BitSet notified = new BitSet();
+
+		for (Agent neighbor : agent.predictedNeighbors(current, actions)) {
+			notify(neighbor, notified);
+			for (Agent dependent : neighbor.predictedNeighbors(newEnv,
+					Collections.emptySet())) {
+				notify(dependent, notified);
+			}
+		}
+	}
+
+	private void notify(Agent receiver, BitSet notified) {
+		Integer index = indices.get(receiver);
+		if (index == null || notified.get(index)) {
+			return;
+		}
+		notified.set(index);
+		notifications.increment();
+		wake(index.intValue());
+	}
+
+	/**
+	 * Records the failure of an agent, and stops the runtime.
+	 */
+	private void fail(int index, Throwable t) {
+		failure.compareAndSet(null, t);
+		stopped = true;
+		states.set(index, IDLE);
+		deactivate();
+	}
+
+	private void deactivate() {
+		if (active.decrementAndGet() == 0) {
+			synchronized (active) {
+				active.notifyAll();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package javafly;
+
+import java.util.function.Function;
+
+/**
+ * <p>
+ * An action whose effect can be recorded in a batch of modifications of the
+ * environment, so that several actions can be applied to a
+ * {@link BatchEnvironment} in a single pass (see
+ * {@link Firefly#act(Object, java.util.Set)}).
+ * </p>
+ *
+ * <p>
+ * Applying the action to a batch must have the same effect as applying it to
+ * the environment modified by the previous actions of the batch.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <Env>
+ *            the environment of the agents
+ * @param <Batch>
+ *            the batch of modifications of the environment
+ */
+public interface BatchAction<Env, Batch> extends Function<Env, Env> {
+
+	/**
+	 * Records the effect of the action in a batch of modifications.
+	 *
+	 * @param batch
+	 *            the modifications of the environment made by the previous
+	 *            actions, which is modified
+	 */
+	public void applyTo(Batch batch);
+
+}
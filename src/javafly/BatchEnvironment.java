@@ -0,0 +1,32 @@
+package javafly;
+
+/**
+ * <p>
+ * An environment which can be modified by a batch of actions (see
+ * {@link BatchAction}) in a single pass: the modifications of the actions are
+ * recorded in a mutable batch, then merged into one new environment.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <Env>
+ *            the type of the environment
+ * @param <Batch>
+ *            the batch of modifications of the environment
+ */
+public interface BatchEnvironment<Env, Batch> {
+
+	/**
+	 * @return a new, empty batch of modifications of this environment
+	 */
+	public Batch newBatch();
+
+	/**
+	 * @param batch
+	 *            modifications of this environment
+	 * @return a new environment, where all the modifications of the batch are
+	 *         applied
+	 */
+	public Env apply(Batch batch);
+
+}
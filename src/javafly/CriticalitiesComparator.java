@@ -0,0 +1,147 @@
+package javafly;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <p>
+ * A comparator of unsorted lists of criticalities, which compares them as if
+ * they were sorted in decreasing order, using the lexicographical ordering.
+ * </p>
+ *
+ * <p>
+ * Instead of sorting the whole lists, the criticalities are put in two binary
+ * max-heaps (built in linear time), and the maximal criticalities are popped
+ * one by one until they differ. Since the comparison is usually decided by the
+ * first criticalities, it costs O(n + k log(n)) where k is the number of
+ * compared positions, instead of O(n log(n)). The heaps are stored in buffers
+ * reused across the comparisons, so a comparison does not allocate anything
+ * (once the buffers are big enough) when the lists support random access.
+ * </p>
+ *
+ * <p>
+ * Lists which are {@link CriticalityVector}s are already sorted, and are
+ * compared directly.
+ * </p>
+ *
+ * <p>
+ * Because of the reused buffers, an instance of this comparator must not be
+ * used by several threads concurrently. The default
+ * {@link Firefly#criticalitiesComparator()} can be shared between threads: it
+ * compares with an instance of the calling thread.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <Criticality>
+ *            the criticality representation
+ */
+public final class CriticalitiesComparator<Criticality extends Comparable<Criticality>>
+		implements Comparator<List<Criticality>> {
+
+	private Object[] heap1 = new Object[16];
+	private Object[] heap2 = new Object[16];
+
+	@Override
+	public int compare(List<Criticality> o1, List<Criticality> o2) {
+		if (o1 instanceof CriticalityVector && o2 instanceof CriticalityVector) {
+			return ((CriticalityVector<Criticality>) o1)
+					.compareTo((CriticalityVector<Criticality>) o2);
+		}
+
+		heap1 = load(heap1, o1);
+		heap2 = load(heap2, o2);
+
+		int n1 = o1.size();
+		int n2 = o2.size();
+		int res = 0;
+
+		while (n1 > 0 && n2 > 0) {
+			res = max(heap1).compareTo(max(heap2));
+			if (res != 0) {
+				break;
+			}
+			n1 = pop(heap1, n1);
+			n2 = pop(heap2, n2);
+		}
+
+		// do not retain the criticalities
+		Arrays.fill(heap1, 0, o1.size(), null);
+		Arrays.fill(heap2, 0, o2.size(), null);
+
+		// TODO: as in the default comparator, the lists are considered equal
+		// if one is a prefix of the other
+		return res;
+	}
+
+	/**
+	 * Copies the criticalities in the buffer (growing it if necessary), and
+	 * turns it into a max-heap.
+	 */
+	private Object[] load(Object[] heap, List<Criticality> criticalities) {
+		int n = criticalities.size();
+		if (heap.length < n) {
+			heap = new Object[Math.max(n, heap.length * 2)];
+		}
+
+		if (criticalities instanceof RandomAccess) {
+			for (int i = 0; i < n; i++) {
+				heap[i] = criticalities.get(i);
+			}
+		} else {
+			int i = 0;
+			for (Criticality c : criticalities) {
+				heap[i++] = c;
+			}
+		}
+
+		for (int i = n / 2 - 1; i >= 0; i--) {
+			siftDown(heap, i, n);
+		}
+
+		return heap;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Criticality max(Object[] heap) {
+		return (Criticality) heap[0];
+	}
+
+	/**
+	 * Removes the maximum of the heap.
+	 *
+	 * @return the new size of the heap
+	 */
+	private int pop(Object[] heap, int n) {
+		n--;
+		heap[0] = heap[n];
+		heap[n] = null;
+		siftDown(heap, 0, n);
+		return n;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void siftDown(Object[] heap, int i, int n) {
+		Object x = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= n) {
+				break;
+			}
+			if (child + 1 < n
+					&& ((Criticality) heap[child + 1])
+							.compareTo((Criticality) heap[child]) > 0) {
+				child++;
+			}
+			if (((Criticality) heap[child]).compareTo((Criticality) x) <= 0) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = x;
+	}
+
+}
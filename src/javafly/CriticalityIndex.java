@@ -0,0 +1,137 @@
+package javafly;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * A live index of the criticalities of a system of agents.
+ * </p>
+ *
+ * <p>
+ * The criticalities are only computed again for the agents which are given to
+ * the {@link #update(Collection, Object) update} method, typically the agents
+ * whose neighborhood was modified by the last actions (see
+ * {@link FireflyRuntime#touched()}). The maximum criticality and the
+ * convergence of the system are maintained along the updates, so they can be
+ * read in constant time.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <Env>
+ *            the environment of the agents
+ * @param <Criticality>
+ *            the criticality representation
+ * @param <Agent>
+ *            the type of the agents
+ */
+public final class CriticalityIndex<Env, Criticality extends Comparable<Criticality>, Agent extends Firefly<Env, ?, Criticality, Agent>> {
+
+	/**
+	 * the criticality of an agent which is satisfied
+	 */
+	private final Criticality zero;
+
+	/**
+	 * maps the agents to their current criticality
+	 */
+	private final Map<Agent, Criticality> criticalities = new HashMap<>();
+
+	/**
+	 * counts the number of agents having a given criticality
+	 */
+	private final TreeMap<Criticality, Integer> counts = new TreeMap<>();
+
+	/**
+	 * the number of agents whose criticality is greater than zero
+	 */
+	private int critical = 0;
+
+	/**
+	 * the current maximum criticality
+	 */
+	private Criticality max;
+
+	/**
+	 * Creates an index containing the criticalities of the given agents.
+	 *
+	 * @param agents
+	 *            the agents to index
+	 * @param env
+	 *            the current environment
+	 * @param zero
+	 *            the criticality of an agent which is satisfied
+	 */
+	public CriticalityIndex(Collection<Agent> agents, Env env, Criticality zero) {
+		this.zero = zero;
+		update(agents, env);
+	}
+
+	/**
+	 * Computes again the criticalities of the given agents.
+	 *
+	 * @param agents
+	 *            the agents whose criticality may have changed
+	 * @param env
+	 *            the current environment
+	 */
+	public void update(Collection<Agent> agents, Env env) {
+		for (Agent agent : agents) {
+			Criticality criticality = agent.criticality(env);
+			Criticality previous = criticalities.put(agent, criticality);
+
+			if (previous != null) {
+				if (previous.compareTo(criticality) == 0) {
+					continue;
+				}
+				remove(previous);
+			}
+			add(criticality);
+		}
+
+		max = counts.isEmpty() ? null : counts.lastKey();
+	}
+
+	/**
+	 * @param agent
+	 *            an indexed agent
+	 * @return the criticality of the agent, as of the last update
+	 */
+	public Criticality criticality(Agent agent) {
+		return criticalities.get(agent);
+	}
+
+	/**
+	 * @return the maximum criticality of the agents, or null if no agent is
+	 *         indexed
+	 */
+	public Criticality maxCriticality() {
+		return max;
+	}
+
+	/**
+	 * @return true if the criticalities of all the agents are equal to zero,
+	 *         that is if the system has converged
+	 */
+	public boolean allZero() {
+		return critical == 0;
+	}
+
+	private void add(Criticality criticality) {
+		counts.merge(criticality, 1, Integer::sum);
+		if (criticality.compareTo(zero) != 0) {
+			critical++;
+		}
+	}
+
+	private void remove(Criticality criticality) {
+		counts.computeIfPresent(criticality, (c, n) -> n == 1 ? null : n - 1);
+		if (criticality.compareTo(zero) != 0) {
+			critical--;
+		}
+	}
+
+}
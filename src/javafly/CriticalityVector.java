@@ -0,0 +1,129 @@
+package javafly;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <p>
+ * An immutable list of criticalities sorted in decreasing order.
+ * </p>
+ *
+ * <p>
+ * The criticalities are sorted once when the vector is created, and the
+ * vectors can then be compared repeatedly using the lexicographical ordering
+ * (see {@link #compareTo(CriticalityVector)}) without sorting them again nor
+ * allocating anything. This is the representation of the scores returned by
+ * the default implementation of {@link Firefly#sortedCriticalities(List)}.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <Criticality>
+ *            the criticality representation
+ */
+public final class CriticalityVector<Criticality extends Comparable<Criticality>>
+		extends AbstractList<Criticality> implements RandomAccess,
+		Comparable<CriticalityVector<Criticality>> {
+
+	/**
+	 * the criticalities, sorted in decreasing order
+	 */
+	private final Object[] criticalities;
+
+	private CriticalityVector(Object[] criticalities) {
+		this.criticalities = criticalities;
+	}
+
+	/**
+	 * Creates a vector containing the given criticalities, sorted in decreasing
+	 * order.
+	 *
+	 * @param criticalities
+	 *            the criticalities, in any order
+	 * @return the sorted vector
+	 */
+	public static <Criticality extends Comparable<Criticality>> CriticalityVector<Criticality> sorted(
+			Collection<Criticality> criticalities) {
+		if (criticalities instanceof CriticalityVector) {
+			return (CriticalityVector<Criticality>) criticalities;
+		}
+
+		Object[] array = criticalities.toArray();
+		Arrays.sort(array, Collections.reverseOrder());
+		return new CriticalityVector<>(array);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Criticality get(int index) {
+		return (Criticality) criticalities[index];
+	}
+
+	@Override
+	public int size() {
+		return criticalities.length;
+	}
+
+	/**
+	 * Compares two vectors using the lexicographical ordering (the first ones
+	 * are compared, then if they are equal the second ones and so on).
+	 *
+	 * TODO: what is the correct behavior when the two vectors have different
+	 * sizes ? For now, they are considered equal if one is a prefix of the
+	 * other.
+	 */
+	@Override
+	public int compareTo(CriticalityVector<Criticality> o) {
+		int n = Math.min(criticalities.length, o.criticalities.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = get(i).compareTo(o.get(i));
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Compares two lists of criticalities already sorted in decreasing order,
+	 * with the same ordering as {@link #compareTo(CriticalityVector)}. The
+	 * comparison does not allocate anything if both lists support random
+	 * access.
+	 *
+	 * @param l1
+	 *            the first sorted list
+	 * @param l2
+	 *            the second sorted list
+	 * @return a negative integer, zero, or a positive integer as the first list
+	 *         is less than, equal to, or greater than the second
+	 */
+	public static <Criticality extends Comparable<Criticality>> int compareSorted(
+			List<Criticality> l1, List<Criticality> l2) {
+		if (l1 instanceof RandomAccess && l2 instanceof RandomAccess) {
+			int n = Math.min(l1.size(), l2.size());
+			for (int i = 0; i < n; i++) {
+				int cmp = l1.get(i).compareTo(l2.get(i));
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+			return 0;
+		}
+
+		Iterator<Criticality> i1 = l1.iterator();
+		Iterator<Criticality> i2 = l2.iterator();
+		while (i1.hasNext() && i2.hasNext()) {
+			int cmp = i1.next().compareTo(i2.next());
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return 0;
+	}
+
+}
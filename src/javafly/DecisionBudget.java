@@ -0,0 +1,213 @@
+package javafly;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * The budget of an anytime decision (see
+ * {@link Firefly#decision(Object, DecisionBudget)}): a maximal duration and/or
+ * a maximal number of predictions, that is of evaluated sets of actions.
+ * </p>
+ *
+ * <p>
+ * When the budget is exhausted, the greedy selection stops and the actions
+ * selected so far are returned. The candidates are evaluated in their
+ * iteration order, so the last greedy step may only consider the first
+ * candidates. The selected actions never worsen the score of the agent, but
+ * they may be worse than the ones of an unlimited decision, and a time budget
+ * makes the decision depend on the speed of the machine.
+ * </p>
+ *
+ * <p>
+ * The budget is only enforced once the first greedy step is completed: all
+ * the candidates are evaluated at least once, so an agent which can improve
+ * its neighborhood with one action always selects an action, even with an
+ * exhausted budget (for instance after a pause of the JVM). Otherwise it would
+ * decide to do nothing, and the runtimes would not schedule it again until one
+ * of its neighbors acts.
+ * </p>
+ *
+ * <p>
+ * The budgets are immutable, and can be shared by all the agents of a system.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class DecisionBudget {
+
+	/**
+	 * a budget which is never exhausted
+	 */
+	public static final DecisionBudget UNLIMITED = new DecisionBudget(
+			Long.MAX_VALUE, Long.MAX_VALUE);
+
+	/**
+	 * the maximal duration of a decision, in nanoseconds
+	 */
+	private final long nanos;
+
+	/**
+	 * the maximal number of predictions of a decision
+	 */
+	private final long predictions;
+
+	private DecisionBudget(long nanos, long predictions) {
+		if (nanos < 0) {
+			throw new IllegalArgumentException("invalid duration: " + nanos);
+		}
+		if (predictions < 1) {
+			throw new IllegalArgumentException("invalid number of predictions: "
+					+ predictions);
+		}
+		this.nanos = nanos;
+		this.predictions = predictions;
+	}
+
+	/**
+	 * @param duration
+	 *            the maximal duration of a decision
+	 * @param unit
+	 *            the unit of the duration
+	 * @return a budget limiting the duration of the decisions
+	 */
+	public static DecisionBudget time(long duration, TimeUnit unit) {
+		return UNLIMITED.withTime(duration, unit);
+	}
+
+	/**
+	 * @param max
+	 *            the maximal number of predictions of a decision (at least 1,
+	 *            since the empty set of actions is always evaluated)
+	 * @return a budget limiting the number of predictions of the decisions
+	 */
+	public static DecisionBudget predictions(long max) {
+		return UNLIMITED.withPredictions(max);
+	}
+
+	/**
+	 * @param duration
+	 *            the maximal duration of a decision
+	 * @param unit
+	 *            the unit of the duration
+	 * @return a budget with the given duration, and the same number of
+	 *         predictions as this one
+	 */
+	public DecisionBudget withTime(long duration, TimeUnit unit) {
+		return new DecisionBudget(unit.toNanos(duration), predictions);
+	}
+
+	/**
+	 * @param max
+	 *            the maximal number of predictions of a decision
+	 * @return a budget with the given number of predictions, and the same
+	 *         duration as this one
+	 */
+	public DecisionBudget withPredictions(long max) {
+		return new DecisionBudget(nanos, max);
+	}
+
+	/**
+	 * @return the maximal duration of a decision in nanoseconds, or
+	 *         Long.MAX_VALUE if it is not limited
+	 */
+	public long timeNanos() {
+		return nanos;
+	}
+
+	/**
+	 * @return the maximal number of predictions of a decision, or
+	 *         Long.MAX_VALUE if it is not limited
+	 */
+	public long maxPredictions() {
+		return predictions;
+	}
+
+	/**
+	 * @return true if the budget is never exhausted
+	 */
+	public boolean isUnlimited() {
+		return nanos == Long.MAX_VALUE && predictions == Long.MAX_VALUE;
+	}
+
+	/**
+	 * Starts to consume the budget, at the beginning of a decision.
+	 *
+	 * @return the consumption of the budget by the decision
+	 */
+	Tracker start() {
+		return isUnlimited() ? Tracker.NONE : new Tracker(this);
+	}
+
+	@Override
+	public String toString() {
+		return "DecisionBudget [nanos=" + nanos + ", predictions="
+				+ predictions + "]";
+	}
+
+	/**
+	 * The consumption of a budget by a decision. The predictions may be
+	 * counted concurrently by several threads.
+	 */
+	static final class Tracker {
+
+		/**
+		 * a tracker which is never exhausted
+		 */
+		static final Tracker NONE = new Tracker(null);
+
+		private final DecisionBudget budget;
+
+		/**
+		 * the start of the decision. The elapsed time is compared to the
+		 * duration of the budget, since a deadline could overflow for long
+		 * durations
+		 */
+		private final long start;
+		private final AtomicLong predictions = new AtomicLong();
+
+		/**
+		 * true once the first greedy step is completed, since the budget is
+		 * only enforced from then on
+		 */
+		private volatile boolean enforced = false;
+
+		private Tracker(DecisionBudget budget) {
+			this.budget = budget;
+			this.start = budget == null ? 0 : System.nanoTime();
+		}
+
+		/**
+		 * Counts a prediction.
+		 */
+		void onPrediction() {
+			if (budget != null) {
+				predictions.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Marks the end of a greedy step.
+		 */
+		void onStep() {
+			if (budget != null && !enforced) {
+				enforced = true;
+			}
+		}
+
+		/**
+		 * @return true if no more predictions should be made
+		 */
+		boolean exhausted() {
+			if (budget == null || !enforced) {
+				return false;
+			}
+			return predictions.get() >= budget.predictions
+					|| (budget.nanos != Long.MAX_VALUE && System.nanoTime()
+							- start >= budget.nanos);
+		}
+
+	}
+
+}
@@ -0,0 +1,119 @@
+package javafly;
+
+/**
+ * <p>
+ * Receives the events of the default decision functions of the agents (see
+ * {@link Firefly#monitor()}), in order to measure where the time of a decision
+ * is spent: predictions, comparisons of scores or greedy iterations.
+ * </p>
+ *
+ * <p>
+ * All the methods have an empty default implementation. The events may be
+ * sent concurrently by several threads, so the implementations must be thread
+ * safe.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public interface DecisionMonitor {
+
+	/**
+	 * A monitor which ignores all the events. The decision functions skip the
+	 * measures (such as reading the clock) when it is used.
+	 */
+	public static final DecisionMonitor NONE = new DecisionMonitor() {
+
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+
+	};
+
+	/**
+	 * @return false if the monitor ignores all the events, in which case the
+	 *         decision functions do not need to measure anything
+	 */
+	default boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * Called when a set of actions is evaluated, that is when the
+	 * predictedNeighbors function is called once, and the predictedCriticality
+	 * function once per predicted neighbor.
+	 *
+	 * @param neighbors
+	 *            the number of predicted neighbors
+	 */
+	default void onPrediction(int neighbors) {
+	}
+
+	/**
+	 * Called when two scores (or lists of criticalities) are compared.
+	 */
+	default void onComparison() {
+	}
+
+	/**
+	 * Called at each iteration of the greedy selection of the actions.
+	 *
+	 * @param candidates
+	 *            the number of candidate actions at this iteration
+	 */
+	default void onIteration(int candidates) {
+	}
+
+	/**
+	 * Called at the start of a decision, before its actions are evaluated.
+	 *
+	 * @param agent
+	 *            the deciding agent
+	 * @return a context given back to
+	 *         {@link #onDecision(Object, int, int, long, Object)} at the end of
+	 *         the same decision (for instance an event spanning the decision),
+	 *         or null
+	 */
+	default Object onDecisionStart(Object agent) {
+		return null;
+	}
+
+	/**
+	 * Called at the end of a decision.
+	 *
+	 * @param agent
+	 *            the agent which decided
+	 * @param candidates
+	 *            the number of initially possible actions
+	 * @param selected
+	 *            the number of selected actions
+	 * @param nanos
+	 *            the duration of the decision, in nanoseconds
+	 */
+	default void onDecision(Object agent, int candidates, int selected,
+			long nanos) {
+	}
+
+	/**
+	 * Called at the end of a decision, with the context returned by
+	 * {@link #onDecisionStart(Object)} at its start. The default
+	 * implementation ignores the context.
+	 *
+	 * @param agent
+	 *            the agent which decided
+	 * @param candidates
+	 *            the number of initially possible actions
+	 * @param selected
+	 *            the number of selected actions
+	 * @param nanos
+	 *            the duration of the decision, in nanoseconds
+	 * @param context
+	 *            the context of the decision
+	 */
+	default void onDecision(Object agent, int candidates, int selected,
+			long nanos, Object context) {
+		onDecision(agent, candidates, selected, nanos);
+	}
+
+}
@@ -0,0 +1,204 @@
+package javafly;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A {@link DecisionMonitor} which aggregates the events of the decisions in
+ * counters and histograms.
+ * </p>
+ *
+ * <p>
+ * The counters are striped (see {@link LongAdder}), so a single instance can
+ * be shared by all the agents of a system deciding concurrently.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class DecisionStats implements DecisionMonitor {
+
+	private final LongAdder decisions = new LongAdder();
+	private final LongAdder predictedNeighbors = new LongAdder();
+	private final LongAdder predictedCriticalities = new LongAdder();
+	private final LongAdder comparisons = new LongAdder();
+	private final LongAdder iterations = new LongAdder();
+
+	private final Histogram candidates = new Histogram();
+	private final Histogram latencies = new Histogram();
+
+	@Override
+	public void onPrediction(int neighbors) {
+		predictedNeighbors.increment();
+		predictedCriticalities.add(neighbors);
+	}
+
+	@Override
+	public void onComparison() {
+		comparisons.increment();
+	}
+
+	@Override
+	public void onIteration(int candidates) {
+		iterations.increment();
+		this.candidates.record(candidates);
+	}
+
+	@Override
+	public void onDecision(Object agent, int candidates, int selected,
+			long nanos) {
+		decisions.increment();
+		latencies.record(nanos);
+	}
+
+	/**
+	 * @return the number of decisions
+	 */
+	public long decisions() {
+		return decisions.sum();
+	}
+
+	/**
+	 * @return the number of calls to predictedNeighbors
+	 */
+	public long predictedNeighbors() {
+		return predictedNeighbors.sum();
+	}
+
+	/**
+	 * @return the number of calls to predictedCriticality
+	 */
+	public long predictedCriticalities() {
+		return predictedCriticalities.sum();
+	}
+
+	/**
+	 * @return the number of comparisons of scores
+	 */
+	public long comparisons() {
+		return comparisons.sum();
+	}
+
+	/**
+	 * @return the number of greedy iterations
+	 */
+	public long iterations() {
+		return iterations.sum();
+	}
+
+	/**
+	 * @return the sizes of the sets of candidate actions, at each greedy
+	 *         iteration
+	 */
+	public Histogram candidates() {
+		return candidates;
+	}
+
+	/**
+	 * @return the durations of the decisions, in nanoseconds
+	 */
+	public Histogram latencies() {
+		return latencies;
+	}
+
+	/**
+	 * Resets all the counters and histograms. The events recorded concurrently
+	 * with a reset may be lost.
+	 */
+	public void reset() {
+		decisions.reset();
+		predictedNeighbors.reset();
+		predictedCriticalities.reset();
+		comparisons.reset();
+		iterations.reset();
+		candidates.reset();
+		latencies.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "decisions: " + decisions() + ", predictedNeighbors: "
+				+ predictedNeighbors() + ", predictedCriticality: "
+				+ predictedCriticalities() + ", comparisons: " + comparisons()
+				+ ", iterations: " + iterations() + ", candidates: "
+				+ candidates + ", latency (ns): " + latencies;
+	}
+
+	/**
+	 * <p>
+	 * A histogram of positive values, with buckets of exponentially increasing
+	 * sizes: the bucket i contains the values whose highest bit is i - 1 (the
+	 * bucket 0 contains the value 0). The recorded values are thus only known
+	 * up to a factor 2, which is enough for sizes and latencies spanning
+	 * several orders of magnitude.
+	 * </p>
+	 */
+	public static final class Histogram {
+
+		private final AtomicLongArray buckets = new AtomicLongArray(
+				Long.SIZE + 1);
+		private final LongAdder sum = new LongAdder();
+
+		void record(long value) {
+			long v = Math.max(0, value);
+			buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(v));
+			sum.add(v);
+		}
+
+		void reset() {
+			for (int i = 0; i < buckets.length(); i++) {
+				buckets.set(i, 0);
+			}
+			sum.reset();
+		}
+
+		/**
+		 * @return the number of recorded values
+		 */
+		public long count() {
+			long count = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				count += buckets.get(i);
+			}
+			return count;
+		}
+
+		/**
+		 * @return the mean of the recorded values
+		 */
+		public double mean() {
+			long count = count();
+			return count == 0 ? 0 : (double) sum.sum() / count;
+		}
+
+		/**
+		 * @param p
+		 *            a number between 0 and 1
+		 * @return an upper bound of the p-th quantile of the recorded values
+		 */
+		public long percentile(double p) {
+			long count = count();
+			long rank = (long) Math.ceil(p * count);
+
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= rank && seen > 0) {
+					return i == 0 ? 0 : i == Long.SIZE ? Long.MAX_VALUE
+							: (1L << i) - 1;
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return "{count: " + count() + ", mean: "
+					+ String.format("%.1f", mean()) + ", p50 <= "
+					+ percentile(0.5) + ", p99 <= " + percentile(0.99) + "}";
+		}
+
+	}
+
+}
@@ -0,0 +1,205 @@
+package javafly;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * A specialization of {@link Firefly} for agents whose criticality is a
+ * double.
+ * </p>
+ *
+ * <p>
+ * The implementations provide the primitive prediction function
+ * predictedCriticalityAsDouble instead of predictedCriticality. The default
+ * decision function then runs the same decision algorithm as {@link Firefly},
+ * but the scores are primitive arrays of criticalities, sorted in decreasing
+ * order with a primitive sort and compared lexicographically without boxing.
+ * </p>
+ *
+ * <p>
+ * The boxed methods of {@link Firefly} (predictedCriticality, criticality,
+ * score...) remain available and consistent with the primitive ones.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <Env>
+ *            the environment of the agents
+ * @param <Action>
+ *            the type of actions available to the agent
+ * @param <Agent>
+ *            the type of the agents
+ */
+public interface DoubleFirefly<Env, Action extends Function<Env, Env>, Agent extends DoubleFirefly<Env, Action, Agent>>
+		extends Firefly<Env, Action, Double, Agent> {
+
+	/**
+	 * This function takes in argument the current environment, a set of actions
+	 * and an agent, and returns the predicted criticality for this agent if the
+	 * actions are applied to the environment.
+	 *
+	 * @param env
+	 *            the current environment
+	 * @param actions
+	 *            the actions to be applied
+	 * @param agent
+	 *            the agent to examine
+	 * @return the predicted criticality of the examinated agent
+	 */
+	public double predictedCriticalityAsDouble(Env env, Set<Action> actions,
+			DoubleFirefly<Env, Action, Agent> agent);
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The default implementation boxes the result of
+	 * predictedCriticalityAsDouble.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	default Double predictedCriticality(Env env, Set<Action> actions,
+			Firefly<Env, Action, Double, Agent> agent) {
+		return predictedCriticalityAsDouble(env, actions,
+				(DoubleFirefly<Env, Action, Agent>) agent);
+	}
+
+	/**
+	 * This method gives the criticality of the agent in the given environment.
+	 *
+	 * @param env
+	 *            the environment in which to evaluate the criticality
+	 * @return the criticality
+	 */
+	default double criticalityAsDouble(Env env) {
+		return predictedCriticalityAsDouble(env, Collections.emptySet(), this);
+	}
+
+	@Override
+	default Double criticality(Env env) {
+		return criticalityAsDouble(env);
+	}
+
+	/**
+	 * This method gives the predicted criticalities of the predicted neighbors
+	 * of the agent if the given actions are applied to the environment.
+	 *
+	 * @param env
+	 *            the current environment
+	 * @param actions
+	 *            the actions to be applied
+	 * @return the predicted criticalities of the neighbors
+	 */
+	default double[] predictedCriticalitiesAsDouble(Env env,
+			Set<Action> actions) {
+		List<Agent> neighbors = predictedNeighbors(env, actions);
+		monitor().onPrediction(neighbors.size());
+
+		double[] criticalities = new double[neighbors.size()];
+		for (int i = 0; i < criticalities.length; i++) {
+			criticalities[i] = predictedCriticalityAsDouble(env, actions,
+					neighbors.get(i));
+		}
+		return criticalities;
+	}
+
+	/**
+	 * This method gives the score of a set of actions, that is the predicted
+	 * criticalities of the neighbors of the agent sorted in decreasing order.
+	 * Scores are compared using {@link #compareScores(double[], double[])}.
+	 *
+	 * @param env
+	 *            the current environment
+	 * @param actions
+	 *            the actions to be applied
+	 * @return the score of the actions
+	 */
+	default double[] scoreAsDouble(Env env, Set<Action> actions) {
+		double[] score = predictedCriticalitiesAsDouble(env, actions);
+
+		// sort in increasing order, then reverse
+		Arrays.sort(score);
+		for (int i = 0, j = score.length - 1; i < j; i++, j--) {
+			double tmp = score[i];
+			score[i] = score[j];
+			score[j] = tmp;
+		}
+
+		return score;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The default implementation runs the decision algorithm of
+	 * {@link Firefly#decision(Object)} on the primitive scores.
+	 */
+	@Override
+	default Set<Action> decision(Env env) {
+		return decision(env, DecisionBudget.UNLIMITED);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The default implementation runs the decision algorithm of
+	 * {@link Firefly#decision(Object, DecisionBudget)} on the primitive
+	 * scores. If the agent overrides one of the methods selecting the actions
+	 * from boxed scores (getBestAction, actionComparator,
+	 * criticalitiesComparator, getBestScoredAction or scoreComparator), the
+	 * boxed decision is run instead, so that these methods are honored.
+	 */
+	@Override
+	default Set<Action> decision(Env env, DecisionBudget budget) {
+		if (GreedyDecision.overridesBoxedDecision(this)) {
+			return Firefly.super.decision(env, budget);
+		}
+
+		DecisionBudget.Tracker tracker = budget.start();
+
+		// the predictions only depend on the tested actions during the whole
+		// decision, so each tested set is only evaluated once
+		PredictionCache<Env, Action, double[]> cache = new PredictionCache<>(
+				env, actions -> scoreAsDouble(env, actions), tracker);
+
+		return GreedyDecision.decide(
+				this,
+				env,
+				cache,
+				DoubleFirefly::compareScores,
+				(candidates, selected) -> GreedyDecision.best(candidates,
+						cache, selected, DoubleFirefly::compareScores,
+						decisionPool(), monitor(), tracker), monitor(),
+				tracker);
+	}
+
+	/**
+	 * Compares two scores (criticalities sorted in decreasing order) using the
+	 * lexicographical ordering, as the comparator returned by
+	 * {@link Firefly#scoreComparator()}.
+	 *
+	 * @param s1
+	 *            the first score
+	 * @param s2
+	 *            the second score
+	 * @return a negative integer, zero, or a positive integer as the first
+	 *         score is less than, equal to, or greater than the second
+	 */
+	static int compareScores(double[] s1, double[] s2) {
+		int n = Math.min(s1.length, s2.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = Double.compare(s1[i], s2[i]);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+
+		// TODO: same behavior as the default comparator when the two scores
+		// have different sizes
+		return 0;
+	}
+
+}
@@ -2,12 +2,15 @@ package javafly;
 
 import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import javafly.util.ActionSet;
+import javafly.util.ContradictionMatrix;
+
 /**
  * <p>
  * The interface corresponding to a cooperative agent.
@@ -73,6 +76,10 @@ public interface Firefly<Env, Action extends Function<Env, Env>, Criticality ext
 	 * This function takes in argument the current environment, and returns a
 	 * set of possible actions.
 	 * 
+	 * The default decision function modifies the returned set, so it must be a
+	 * new, mutable set. When the actions are taken from a fixed alphabet, an
+	 * {@link ActionSet} makes the sets of actions of the decision bitsets.
+	 * 
 	 * @param env
 	 *            the current environment
 	 * @return the possible actions
@@ -110,6 +117,27 @@ public interface Firefly<Env, Action extends Function<Env, Env>, Criticality ext
 		return !contradictoryActions(env, actions).contains(action);
 	}
 
+	/**
+	 * Provides the pairwise contradictions between the actions of the agent,
+	 * when they do not depend on the environment.
+	 * 
+	 * When a matrix is provided, the default decision function uses it
+	 * instead of {@link #isCompatible(Object, Set, Object) isCompatible} to
+	 * remove the candidates contradicting each newly selected action, with a
+	 * single mask operation if the possible actions are an {@link ActionSet}
+	 * of the same alphabet. The matrix must then be consistent with the
+	 * contradictoryActions method, which can simply be implemented with
+	 * {@link ContradictionMatrix#contradictions(Set)}.
+	 * 
+	 * The default implementation returns null, in which case the candidates
+	 * are checked with isCompatible.
+	 * 
+	 * @return the contradiction matrix of the actions, or null
+	 */
+	default ContradictionMatrix<Action> contradictionMatrix() {
+		return null;
+	}
+
 	/**
 	 * This function takes in argument the current environment, a set of actions
 	 * and an agent, and returns the predicted criticality for this agent if the
@@ -141,50 +169,47 @@ public interface Firefly<Env, Action extends Function<Env, Env>, Criticality ext
 	 * @return the actions to be applied
 	 */
 	default Set<Action> decision(Env env) {
-		Set<Action> candidateActions = possibleActions(env);
-		Set<Action> selectedActions = new HashSet<>();
-
-		// List<Action> tmp = new ArrayList<>(candidateActions);
-		// tmp.sort(actionComparator(env, selectedActions));
-		// System.out.println(tmp);
-
-		boolean stop = false;
-
-		while (!candidateActions.isEmpty() && !stop) {
-			Action bestAction = getBestAction(candidateActions, env,
-					selectedActions);
-
-			HashSet<Action> testedActions1 = new HashSet<>(selectedActions);
-			testedActions1.add(bestAction);
-
-			List<Criticality> c1 = predictedNeighbors(env, testedActions1)
-					.stream()
-					.map(n -> predictedCriticality(env, testedActions1, n))
-					.collect(Collectors.toList());
+		return decision(env, DecisionBudget.UNLIMITED);
+	}
 
-			List<Criticality> c2 = predictedNeighbors(env, selectedActions)
-					.stream()
-					.map(n -> predictedCriticality(env, selectedActions, n))
-					.collect(Collectors.toList());
+	/**
+	 * An anytime variant of the decision function: the selection of the
+	 * actions stops when the budget is exhausted, and the actions selected so
+	 * far are returned (see {@link DecisionBudget}). This bounds the latency of
+	 * the agents having many possible actions, at the cost of possibly worse
+	 * decisions.
+	 * 
+	 * The default implementation runs the default decision algorithm, where
+	 * each evaluated set of actions counts as one prediction. The best
+	 * candidates are selected by getBestScoredAction, which can read the
+	 * budget from the given cache.
+	 * 
+	 * @param env
+	 *            the current environment
+	 * @param budget
+	 *            the budget of the decision
+	 * @return the actions to be applied
+	 */
+	default Set<Action> decision(Env env, DecisionBudget budget) {
+		DecisionBudget.Tracker tracker = budget.start();
 
-			if (criticalitiesComparator().compare(c1, c2) > 0) {
-				stop = true;
-			} else {
-				selectedActions.add(bestAction);
-				candidateActions.remove(bestAction);
-				candidateActions = candidateActions.stream()
-						.filter(a -> isCompatible(env, selectedActions, a))
-						.collect(Collectors.toSet());
-			}
-		}
+		// the predictions only depend on the tested actions during the whole
+		// decision, so each tested set is only evaluated once
+		PredictionCache<Env, Action, List<Criticality>> cache = new PredictionCache<>(
+				env, actions -> score(env, actions), tracker);
 
-		return selectedActions;
+		return GreedyDecision.decide(this, env, cache, scoreComparator(), (
+				candidates, selected) -> getBestScoredAction(candidates, cache,
+				selected), monitor(), tracker);
 	}
 
 	/**
 	 * This method applies a set of actions to the given environment.
 	 * 
-	 * In the default implementation, the actions are applied sequentially.
+	 * In the default implementation, if the environment is a
+	 * {@link BatchEnvironment} and all the actions are {@link BatchAction}s,
+	 * the actions are recorded in a single batch, which is applied in one
+	 * pass. Otherwise the actions are applied sequentially.
 	 * 
 	 * @param env
 	 *            the starting environment
@@ -192,7 +217,18 @@ public interface Firefly<Env, Action extends Function<Env, Env>, Criticality ext
 	 *            the actions to be applied
 	 * @return the new environment
 	 */
+	@SuppressWarnings("unchecked")
 	default Env act(Env env, Set<Action> actions) {
+		if (actions.size() > 1 && env instanceof BatchEnvironment
+				&& actions.stream().allMatch(a -> a instanceof BatchAction)) {
+			BatchEnvironment<Env, Object> batchEnv = (BatchEnvironment<Env, Object>) env;
+			Object batch = batchEnv.newBatch();
+			for (Action action : actions) {
+				((BatchAction<Env, Object>) action).applyTo(batch);
+			}
+			return batchEnv.apply(batch);
+		}
+
 		Env newEnv = env;
 
 		for (Action action : actions) {
@@ -213,6 +249,42 @@ public interface Firefly<Env, Action extends Function<Env, Env>, Criticality ext
 		return predictedCriticality(env, new HashSet<Action>(), this);
 	}
 
+	/**
+	 * This method gives the predicted criticalities of the predicted neighbors
+	 * of the agent if the given actions are applied to the environment.
+	 * 
+	 * @param env
+	 *            the current environment
+	 * @param actions
+	 *            the actions to be applied
+	 * @return the predicted criticalities of the neighbors
+	 */
+	default List<Criticality> predictedCriticalities(Env env,
+			Set<Action> actions) {
+		List<Agent> neighbors = predictedNeighbors(env, actions);
+		monitor().onPrediction(neighbors.size());
+
+		return neighbors.stream()
+				.map(n -> predictedCriticality(env, actions, n))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * This method gives the score of a set of actions, that is the predicted
+	 * criticalities of the neighbors of the agent sorted by the method
+	 * sortedCriticalities. Scores are compared using the comparator returned
+	 * by scoreComparator.
+	 * 
+	 * @param env
+	 *            the current environment
+	 * @param actions
+	 *            the actions to be applied
+	 * @return the score of the actions
+	 */
+	default List<Criticality> score(Env env, Set<Action> actions) {
+		return sortedCriticalities(predictedCriticalities(env, actions));
+	}
+
 	/*
 	 * ///////////////////////// UTILITY FUNCTIONS ////////////////////////////
 	 */
@@ -225,6 +297,10 @@ public interface Firefly<Env, Action extends Function<Env, Env>, Criticality ext
 	 * The default implementation returns the action which is minimal based on
 	 * the comparator returned by the method actionComparator.
 	 * 
+	 * NOTE: the default decision only calls this method (and actionComparator)
+	 * if it is overridden, or if actionComparator is overridden (see
+	 * getBestScoredAction).
+	 * 
 	 * @param actions
 	 *            the candidate actions
 	 * @param env
@@ -239,6 +315,74 @@ public interface Firefly<Env, Action extends Function<Env, Env>, Criticality ext
 				.get();
 	}
 
+	/**
+	 * Returns the best possible action in regard to a set of already selected
+	 * actions, along with its score.
+	 * 
+	 * The default implementation scores each candidate action exactly once
+	 * (concurrently if decisionPool provides a pool), then returns the first
+	 * one which is minimal based on the comparator returned by
+	 * scoreComparator. If the agent overrides getBestAction or
+	 * actionComparator, the best action is selected by getBestAction instead,
+	 * so that the decision still goes through these methods. Once the budget
+	 * of the decision is exhausted, the remaining candidates are not scored
+	 * anymore.
+	 * 
+	 * @param actions
+	 *            the candidate actions
+	 * @param cache
+	 *            the predictions for the current environment
+	 * @param selectedActions
+	 *            the already selected action
+	 * @return the best possible action and its score, or null if no
+	 *         candidate could be scored within the budget of the decision
+	 */
+	default ScoredAction<Action, List<Criticality>> getBestScoredAction(
+			Set<Action> actions,
+			PredictionCache<Env, Action, List<Criticality>> cache,
+			Set<Action> selectedActions) {
+		if (GreedyDecision.overridesActionSelection(this)) {
+			Action best = getBestAction(actions, cache.env(), selectedActions);
+			return new ScoredAction<>(best, cache.score(selectedActions, best));
+		}
+		return GreedyDecision.best(actions, cache, selectedActions,
+				scoreComparator(), decisionPool(), monitor(), cache.budget());
+	}
+
+	/**
+	 * Provides the pool used to evaluate the candidate actions concurrently
+	 * during a decision.
+	 * 
+	 * The default implementation returns null, in which case the candidates
+	 * are evaluated sequentially. An agent can opt in the parallel evaluation
+	 * by returning a pool (for instance {@link ForkJoinPool#commonPool()}).
+	 * This is only correct if the prediction functions (predictedNeighbors
+	 * and predictedCriticality) are thread safe, which is the case when they
+	 * are pure functions of an immutable environment.
+	 * 
+	 * @return the pool used to evaluate the candidates, or null to evaluate
+	 *         them sequentially
+	 */
+	default ForkJoinPool decisionPool() {
+		return null;
+	}
+
+	/**
+	 * Provides the monitor which receives the events of the default decision
+	 * function (predictions, comparisons, iterations and duration of the
+	 * decisions).
+	 * 
+	 * The default implementation returns {@link DecisionMonitor#NONE}, which
+	 * ignores all the events and has a negligible overhead. Since the agents
+	 * are stateless, a monitor (such as {@link DecisionStats}) is typically
+	 * shared by all the agents of a system.
+	 * 
+	 * @return the decision monitor
+	 */
+	default DecisionMonitor monitor() {
+		return DecisionMonitor.NONE;
+	}
+
 	/**
 	 * Provides a comparator of actions, in a given environment and in regard to
 	 * a set of already selected actions.
@@ -255,77 +399,92 @@ public interface Firefly<Env, Action extends Function<Env, Env>, Criticality ext
 	 */
 	default Comparator<Action> actionComparator(Env env,
 			Set<Action> selectedActions) {
-		return (o1, o2) -> {
-
-			HashSet<Action> testedActions1 = new HashSet<>(selectedActions);
-			testedActions1.add(o1);
-
-			HashSet<Action> testedActions2 = new HashSet<>(selectedActions);
-			testedActions2.add(o2);
-
-			// convert the actions to predicted neighborhoods, then to
-			// criticalities
-			List<Criticality> c1 = predictedNeighbors(env, testedActions1)
-					.stream()
-					.map(n -> predictedCriticality(env, testedActions1, n))
-					.collect(Collectors.toList());
-
-			List<Criticality> c2 = predictedNeighbors(env, testedActions2)
-					.stream()
-					.map(n -> predictedCriticality(env, testedActions2, n))
-					.collect(Collectors.toList());
+		return actionComparator(new PredictionCache<>(env, a -> score(env, a)),
+				selectedActions);
+	}
 
-			return criticalitiesComparator().compare(c1, c2);
+	/**
+	 * Provides a comparator of actions in regard to a set of already selected
+	 * actions, where the predicted criticalities of each tested action are
+	 * taken from the given cache instead of being recomputed at each
+	 * comparison. The cached scores are compared using the comparator
+	 * returned by scoreComparator.
+	 * 
+	 * @param cache
+	 *            the predictions for the current environment
+	 * @param selectedActions
+	 *            the already selected action
+	 * @return an action comparator
+	 */
+	default Comparator<Action> actionComparator(
+			PredictionCache<Env, Action, List<Criticality>> cache,
+			Set<Action> selectedActions) {
+		return (o1, o2) -> {
+			monitor().onComparison();
+			return scoreComparator().compare(cache.score(selectedActions, o1),
+					cache.score(selectedActions, o2));
 		};
 	}
 
 	/**
 	 * Provides a comparator of lists of criticalities.
 	 * 
-	 * The default implementation sorts criticalities in decreasing order. Then
-	 * it compare them using the lexicographical ordering (the first ones are
-	 * compared, then if they are equal the second ones and so on).
+	 * The default implementation compares the criticalities as if they were
+	 * sorted in decreasing order, using the lexicographical ordering (the first
+	 * ones are compared, then if they are equal the second ones and so on).
+	 * The lists are not sorted: the maximal criticalities are selected lazily
+	 * until they differ (see {@link CriticalitiesComparator}). The returned
+	 * comparator is stateless and can be shared between threads: each
+	 * comparison reuses the buffers of the calling thread.
+	 * 
+	 * NOTE: the default decision compares scores, that is sorted lists of
+	 * criticalities. If this method is overridden, the default scoreComparator
+	 * returns this comparator, so that it still decides between the actions.
 	 * 
 	 * TODO: what is the correct behavior when the two lists have different
-	 * sizes ? (see TODOs inside method body)
+	 * sizes ? For now, they are considered equal if one is a prefix of the
+	 * other.
 	 * 
 	 * @return a comparator for lists of criticalities
 	 */
 	default Comparator<List<Criticality>> criticalitiesComparator() {
-		return (o1, o2) -> {
-
-			// sort the lists in decreasing order and convert them to iterators
-			Iterator<Criticality> l1 = o1.stream()
-					.sorted((c1, c2) -> c2.compareTo(c1)).iterator();
-			Iterator<Criticality> l2 = o2.stream()
-					.sorted((c1, c2) -> c2.compareTo(c1)).iterator();
-
-			while (l1.hasNext()) {
-
-				Criticality c1 = l1.next();
-
-				if (l2.hasNext()) {
-
-					Criticality c2 = l2.next();
-
-					if (!(c1.compareTo(c2) == 0)) {
-						return c1.compareTo(c2);
-					} else {
-						// continue
-					}
-
-				} else {
-					return 0; // TODO: correct ?
-				}
-
-			}
+		return GreedyDecision.criticalitiesComparator();
+	}
 
-			if (l2.hasNext()) {
-				return 0; // TODO: correct ?
-			} else {
-				return 0;
-			}
-		};
+	/**
+	 * Sorts a list of criticalities in the order in which they are compared by
+	 * the comparator returned by scoreComparator.
+	 * 
+	 * The default implementation returns a {@link CriticalityVector}, sorted
+	 * in decreasing order.
+	 * 
+	 * @param criticalities
+	 *            the criticalities to sort
+	 * @return the sorted criticalities
+	 */
+	default List<Criticality> sortedCriticalities(
+			List<Criticality> criticalities) {
+		return CriticalityVector.sorted(criticalities);
+	}
 
+	/**
+	 * Provides a comparator of scores, that is lists of criticalities already
+	 * sorted by sortedCriticalities. Since the scores are sorted only once,
+	 * they can be compared repeatedly at a low cost.
+	 * 
+	 * The default implementation compares the scores using the lexicographical
+	 * ordering (the first ones are compared, then if they are equal the second
+	 * ones and so on), without allocating anything for scores supporting
+	 * random access (see {@link CriticalityVector#compareSorted(List, List)}).
+	 * If the agent overrides criticalitiesComparator, the comparator it returns
+	 * is used instead.
+	 * 
+	 * @return a comparator for scores
+	 */
+	default Comparator<List<Criticality>> scoreComparator() {
+		if (GreedyDecision.overridesCriticalitiesComparator(this)) {
+			return criticalitiesComparator();
+		}
+		return CriticalityVector::compareSorted;
 	}
 }
@@ -0,0 +1,482 @@
+package javafly;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import javafly.jfr.RoundEvent;
+
+/**
+ * <p>
+ * Runs a system of agents in rounds.
+ * </p>
+ *
+ * <p>
+ * Each round is composed of two phases:
+ * </p>
+ * <ul>
+ * <li>a decision phase, where the scheduled agents decide concurrently against
+ * the same snapshot of the environment. Since the agents are pure decision
+ * functions and the environment is immutable, no synchronization is
+ * needed</li>
+ * <li>an action phase, where the selected actions are applied to the
+ * environment, one agent after the other, in the order in which the agents
+ * were given to the runtime</li>
+ * </ul>
+ *
+ * <p>
+ * A decision made against the snapshot is only kept if no agent which acted
+ * before in the round changed the neighborhood of the deciding agent.
+ * Otherwise the agent decides again in the updated environment. A round thus
+ * has the same result as a sequential loop where each agent decides and acts
+ * in turn, and does not depend on the number of threads. Only the agents close
+ * to an agent which acted earlier in the same round have to decide again.
+ * </p>
+ *
+ * <p>
+ * Only the agents whose neighborhood was perturbed are scheduled: when an agent
+ * acts, its predicted neighbors (whose criticality changed) and their own
+ * neighbors (whose decision depends on these criticalities) are marked as
+ * dirty, along with the agent itself. The other agents would take the same
+ * decision as the last time they decided, which did not contain any action,
+ * and are left quiescent. This assumes that the neighborhoods are symmetric (an
+ * agent is a neighbor of its neighbors), and that the environment is only
+ * modified through the runtime (otherwise the modified agents must be
+ * scheduled explicitly).
+ * </p>
+ *
+ * <p>
+ * The predicted neighbors which are not managed by the runtime are ignored
+ * when scheduling the agents. They can for instance be the ghost copies of
+ * agents run by another process, whose values are replaced from outside the
+ * runtime (see {@link #setEnv(Object)} and {@link #round(Predicate)}).
+ * </p>
+ *
+ * <p>
+ * Each round emits a {@link RoundEvent} when the event is enabled in a Java
+ * Flight Recorder recording.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <Env>
+ *            the environment of the agents
+ * @param <Action>
+ *            the type of actions available to the agents
+ * @param <Criticality>
+ *            the criticality representation
+ * @param <Agent>
+ *            the type of the agents
+ */
+public final class FireflyRuntime<Env, Action extends Function<Env, Env>, Criticality extends Comparable<Criticality>, Agent extends Firefly<Env, Action, Criticality, Agent>> {
+
+	/**
+	 * the agents, in the order in which their actions are applied
+	 */
+	private final List<Agent> agents;
+
+	/**
+	 * maps the agents to their position in the list of agents
+	 */
+	private final Map<Agent, Integer> indices = new HashMap<>();
+
+	/**
+	 * the pool in which the decisions are computed
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * the current environment
+	 */
+	private Env env;
+
+	/**
+	 * the agents which must decide in the next round
+	 */
+	private BitSet dirty;
+
+	/**
+	 * the agents whose criticality may have changed during the last round
+	 */
+	private BitSet touched = new BitSet();
+
+	/**
+	 * the number of rounds executed so far
+	 */
+	private int rounds = 0;
+
+	/**
+	 * the number of decisions computed during the current round
+	 */
+	private int decided;
+
+	/**
+	 * the budget of the decisions of the agents
+	 */
+	private DecisionBudget budget = DecisionBudget.UNLIMITED;
+
+	/**
+	 * the index of the criticalities updated after each round, or null
+	 */
+	private CriticalityIndex<Env, Criticality, Agent> index;
+
+	/**
+	 * Creates a runtime whose decisions are computed in the common pool.
+	 *
+	 * @param agents
+	 *            the agents, in the order in which their actions are applied
+	 * @param env
+	 *            the initial environment
+	 */
+	public FireflyRuntime(Collection<Agent> agents, Env env) {
+		this(agents, env, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param agents
+	 *            the agents, in the order in which their actions are applied
+	 * @param env
+	 *            the initial environment
+	 * @param pool
+	 *            the pool in which the decisions are computed
+	 */
+	public FireflyRuntime(Collection<Agent> agents, Env env, ForkJoinPool pool) {
+		this.agents = Collections.unmodifiableList(new ArrayList<>(agents));
+		this.env = env;
+		this.pool = pool;
+
+		for (int i = 0; i < this.agents.size(); i++) {
+			indices.put(this.agents.get(i), i);
+		}
+
+		// initially, all the agents must decide
+		this.dirty = new BitSet(this.agents.size());
+		this.dirty.set(0, this.agents.size());
+	}
+
+	/**
+	 * @return the agents, in the order in which their actions are applied
+	 */
+	public List<Agent> agents() {
+		return agents;
+	}
+
+	/**
+	 * @return the current environment
+	 */
+	public Env env() {
+		return env;
+	}
+
+	/**
+	 * Replaces the environment, for instance after a modification made outside
+	 * the runtime. The agents whose neighborhood was modified must then be
+	 * scheduled (see {@link #schedule(Collection)}).
+	 *
+	 * @param env
+	 *            the new environment
+	 */
+	public void setEnv(Env env) {
+		this.env = env;
+	}
+
+	/**
+	 * @return the number of rounds executed so far
+	 */
+	public int rounds() {
+		return rounds;
+	}
+
+	/**
+	 * @return the number of agents scheduled for the next round
+	 */
+	public int scheduled() {
+		return dirty.cardinality();
+	}
+
+	/**
+	 * @return true if no agent is scheduled, in which case no agent will ever
+	 *         act again
+	 */
+	public boolean isQuiescent() {
+		return dirty.isEmpty();
+	}
+
+	/**
+	 * @return the agents whose criticality may have changed during the last
+	 *         round
+	 */
+	public List<Agent> touched() {
+		return touched.stream().mapToObj(agents::get)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * @return the index of the criticalities updated after each round, or null
+	 *         if no index is attached to the runtime
+	 */
+	public CriticalityIndex<Env, Criticality, Agent> index() {
+		return index;
+	}
+
+	/**
+	 * Attaches an index of the criticalities to the runtime. After each round,
+	 * the index is updated with the touched agents, and its maximum
+	 * criticality is reported in the {@link RoundEvent}.
+	 *
+	 * @param index
+	 *            the index of the criticalities of the agents, in the current
+	 *            environment, or null to detach the current index
+	 */
+	public void setIndex(CriticalityIndex<Env, Criticality, Agent> index) {
+		this.index = index;
+	}
+
+	/**
+	 * @return the budget of the decisions of the agents
+	 */
+	public DecisionBudget budget() {
+		return budget;
+	}
+
+	/**
+	 * Sets the budget of the decisions of the agents. With a limited budget,
+	 * the agents use their anytime decision function (see
+	 * {@link Firefly#decision(Object, DecisionBudget)}), which bounds the
+	 * duration of the rounds, but the result of a round then depends on the
+	 * budget (and on the speed of the machine for a time budget).
+	 *
+	 * @param budget
+	 *            the budget of the decisions, {@link DecisionBudget#UNLIMITED}
+	 *            by default
+	 */
+	public void setBudget(DecisionBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Schedules the given agents for the next round, for instance after a
+	 * modification of the environment made outside the runtime. The agents
+	 * not managed by the runtime are ignored.
+	 *
+	 * @param toSchedule
+	 *            the agents to schedule
+	 */
+	public void schedule(Collection<Agent> toSchedule) {
+		for (Agent agent : toSchedule) {
+			Integer index = indices.get(agent);
+			if (index != null) {
+				dirty.set(index);
+			}
+		}
+	}
+
+	/**
+	 * Schedules all the agents for the next round.
+	 */
+	public void scheduleAll() {
+		dirty.set(0, agents.size());
+	}
+
+	/**
+	 * Executes a round: the scheduled agents decide against the current
+	 * environment, then their actions are applied (after a new decision for
+	 * the agents whose neighborhood was modified during the round). If an
+	 * index is attached to the runtime, it is then updated.
+	 *
+	 * @return the number of agents which applied at least one action
+	 */
+	public int round() {
+		return round(agent -> true);
+	}
+
+	/**
+	 * Executes a round where only the eligible agents decide. The other
+	 * scheduled agents, and the ones perturbed during the round, stay
+	 * scheduled for the next rounds.
+	 *
+	 * @param eligible
+	 *            the agents allowed to decide in this round
+	 * @return the number of agents which applied at least one action
+	 */
+	public int round(Predicate<? super Agent> eligible) {
+		RoundEvent event = new RoundEvent();
+		event.begin();
+
+		final Env snapshot = env;
+
+		BitSet scheduled = new BitSet(agents.size());
+		BitSet deferred = new BitSet(agents.size());
+		for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+			(eligible.test(agents.get(i)) ? scheduled : deferred).set(i);
+		}
+		dirty = deferred;
+		touched = new BitSet(agents.size());
+		decided = scheduled.cardinality();
+
+		int acting = merge(snapshot, scheduled, decide(snapshot, scheduled),
+				eligible);
+		rounds++;
+
+		if (index != null) {
+			index.update(touched(), env);
+		}
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.round = rounds;
+			event.scheduled = scheduled.cardinality();
+			event.decisions = decided;
+			event.acting = acting;
+			if (index != null) {
+				Object max = index.maxCriticality();
+				if (max instanceof Number) {
+					event.maxCriticality = ((Number) max).doubleValue();
+				} else {
+					event.maxCriticalityText = String.valueOf(max);
+				}
+			}
+			event.commit();
+		}
+
+		return acting;
+	}
+
+	/**
+	 * Computes concurrently the decisions of the scheduled agents against the
+	 * same environment.
+	 *
+	 * @param snapshot
+	 *            the environment in which the agents decide
+	 * @param scheduled
+	 *            the indices of the agents which must decide
+	 * @return the selected actions, by agent index
+	 */
+	private Map<Integer, Set<Action>> decide(final Env snapshot,
+			BitSet scheduled) {
+		return pool.submit(
+				() -> scheduled.stream().parallel().boxed()
+						.collect(Collectors.toConcurrentMap(i -> i,
+								i -> decide(agents.get(i), snapshot))))
+				.join();
+	}
+
+	/**
+	 * @return the decision of the agent in the environment, within the budget
+	 *         of the runtime
+	 */
+	private Set<Action> decide(Agent agent, Env env) {
+		return budget.isUnlimited() ? agent.decision(env) : agent.decision(
+				env, budget);
+	}
+
+	/**
+	 * Applies the selected actions of the agents, one agent after the other,
+	 * in the order of the agents. The decision of an agent whose neighborhood
+	 * was modified by the previous agents is replaced by a new decision in the
+	 * updated environment, and the agents whose neighborhood is modified are
+	 * marked as dirty.
+	 *
+	 * @param snapshot
+	 *            the environment in which the agents decided
+	 * @param scheduled
+	 *            the indices of the agents which decided
+	 * @param decisions
+	 *            the selected actions, by agent index
+	 * @param eligible
+	 *            the agents allowed to decide in this round
+	 * @return the number of agents which applied at least one action
+	 */
+	private int merge(Env snapshot, BitSet scheduled,
+			Map<Integer, Set<Action>> decisions,
+			Predicate<? super Agent> eligible) {
+		Env newEnv = snapshot;
+		int acting = 0;
+
+		// the agents which must decide in this round, including the ones
+		// perturbed by the previous agents of the round
+		BitSet pending = (BitSet) scheduled.clone();
+
+		// the agents whose decision made in the snapshot is not valid anymore
+		BitSet stale = new BitSet(agents.size());
+
+		for (int i = pending.nextSetBit(0); i >= 0; i = pending
+				.nextSetBit(i + 1)) {
+			Agent agent = agents.get(i);
+
+			Set<Action> actions = stale.get(i) ? null : decisions.get(i);
+			if (actions == null) {
+				actions = decide(agent, newEnv);
+				decided++;
+			}
+
+			if (!actions.isEmpty()) {
+				acting++;
+
+				// the agent may act again, and the decisions of the agents
+				// around it may change
+				dirty.set(i);
+				for (Agent neighbor : agent.predictedNeighbors(newEnv, actions)) {
+					Integer index = indices.get(neighbor);
+					if (index != null) {
+						touched.set(index);
+					}
+					perturb(neighbor, i, pending, stale, eligible);
+					for (Agent dependent : neighbor.predictedNeighbors(newEnv,
+							Collections.emptySet())) {
+						perturb(dependent, i, pending, stale, eligible);
+					}
+				}
+
+				newEnv = agent.act(newEnv, actions);
+			}
+		}
+
+		env = newEnv;
+
+		return acting;
+	}
+
+	/**
+	 * Marks an agent whose neighborhood was modified by the agent at the given
+	 * position. If its turn has not come yet in the current round and it is
+	 * eligible, it must decide in the updated environment. Otherwise, it must
+	 * decide in a next round. The agents not managed by the runtime are
+	 * ignored.
+	 *
+	 * @param agent
+	 *            the perturbed agent
+	 * @param current
+	 *            the position of the agent which acted
+	 * @param pending
+	 *            the agents which must decide in the current round
+	 * @param stale
+	 *            the agents whose decision made in the snapshot is not valid
+	 *            anymore
+	 * @param eligible
+	 *            the agents allowed to decide in this round
+	 */
+	private void perturb(Agent agent, int current, BitSet pending,
+			BitSet stale, Predicate<? super Agent> eligible) {
+		Integer index = indices.get(agent);
+		if (index == null) {
+			return;
+		}
+		if (index > current && eligible.test(agent)) {
+			pending.set(index);
+			stale.set(index);
+		} else {
+			dirty.set(index);
+		}
+	}
+
+}
@@ -0,0 +1,293 @@
+package javafly;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import javafly.util.ActionSet;
+import javafly.util.ContradictionMatrix;
+
+/**
+ * The greedy decision algorithm used by the default decision functions, written
+ * independently of the representation of the scores so that it can be shared
+ * by the specializations of {@link Firefly} (see {@link DoubleFirefly}).
+ * 
+ * @author jorquera
+ *
+ */
+final class GreedyDecision {
+
+	/**
+	 * the classes of agents overriding the methods which selected the best
+	 * action before the scores were cached (getBestAction or
+	 * actionComparator)
+	 */
+	private static final ClassValue<Boolean> actionSelection = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			return overrides(type, "getBestAction", Set.class, Object.class,
+					Set.class)
+					|| overrides(type, "actionComparator", Object.class,
+							Set.class)
+					|| overrides(type, "actionComparator",
+							PredictionCache.class, Set.class);
+		}
+	};
+
+	/**
+	 * the classes of agents overriding criticalitiesComparator
+	 */
+	private static final ClassValue<Boolean> criticalitiesComparator = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			return overrides(type, "criticalitiesComparator");
+		}
+	};
+
+	/**
+	 * the classes of agents overriding the selection of the actions based on
+	 * boxed scores (getBestScoredAction or scoreComparator)
+	 */
+	private static final ClassValue<Boolean> scoreSelection = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			return overrides(type, "getBestScoredAction", Set.class,
+					PredictionCache.class, Set.class)
+					|| overrides(type, "scoreComparator");
+		}
+	};
+
+	/**
+	 * the comparator of unsorted criticalities of each thread, whose buffers
+	 * are reused by all the comparisons of the thread
+	 */
+	private static final ThreadLocal<CriticalitiesComparator<?>> comparators = ThreadLocal
+			.withInitial(CriticalitiesComparator::new);
+
+	/**
+	 * the stateless comparator of unsorted criticalities, which compares with
+	 * the comparator of the calling thread
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static final Comparator<List> sharedComparator = (o1,
+			o2) -> ((Comparator) comparators.get()).compare(o1, o2);
+
+	private GreedyDecision() {
+	}
+
+	/**
+	 * @return a comparator of unsorted lists of criticalities (see
+	 *         {@link CriticalitiesComparator}), which can be shared between
+	 *         threads and does not allocate anything
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static <Criticality extends Comparable<Criticality>> Comparator<List<Criticality>> criticalitiesComparator() {
+		return (Comparator) sharedComparator;
+	}
+
+	/**
+	 * @param agent
+	 *            an agent
+	 * @return true if the agent overrides getBestAction or actionComparator,
+	 *         in which case the default decision must select the best action
+	 *         through them
+	 */
+	static boolean overridesActionSelection(Firefly<?, ?, ?, ?> agent) {
+		return actionSelection.get(agent.getClass());
+	}
+
+	/**
+	 * @param agent
+	 *            an agent
+	 * @return true if the agent overrides criticalitiesComparator, in which
+	 *         case the default decision must compare the scores with it
+	 */
+	static boolean overridesCriticalitiesComparator(Firefly<?, ?, ?, ?> agent) {
+		return criticalitiesComparator.get(agent.getClass());
+	}
+
+	/**
+	 * @param agent
+	 *            an agent
+	 * @return true if the agent overrides one of the methods of the default
+	 *         decision comparing boxed criticalities, in which case a
+	 *         primitive specialization must not bypass it
+	 */
+	static boolean overridesBoxedDecision(Firefly<?, ?, ?, ?> agent) {
+		Class<?> type = agent.getClass();
+		return actionSelection.get(type) || criticalitiesComparator.get(type)
+				|| scoreSelection.get(type);
+	}
+
+	/**
+	 * @return true if the given method of Firefly is overridden by the given
+	 *         class (or by one of its super types)
+	 */
+	private static boolean overrides(Class<?> type, String name,
+			Class<?>... parameters) {
+		try {
+			return type.getMethod(name, parameters).getDeclaringClass() != Firefly.class;
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Selects the actions of the agent: at each step, the best candidate action
+	 * is added to the selected actions, unless it worsens the score of the
+	 * already selected actions. The selection also stops when the budget is
+	 * exhausted, after the first step.
+	 * 
+	 * @param agent
+	 *            the deciding agent
+	 * @param env
+	 *            the current environment
+	 * @param cache
+	 *            the scores of the tested sets of actions
+	 * @param comparator
+	 *            the comparator of the scores
+	 * @param bestAction
+	 *            returns the best candidate action (first argument) in regard
+	 *            to the selected actions (second argument)
+	 * @param monitor
+	 *            receives the events of the decision
+	 * @param budget
+	 *            the budget of the decision
+	 * @return the selected actions
+	 */
+	static <Env, Action extends Function<Env, Env>, S> Set<Action> decide(
+			Firefly<Env, Action, ?, ?> agent, Env env,
+			PredictionCache<Env, Action, S> cache, Comparator<S> comparator,
+			BiFunction<Set<Action>, Set<Action>, ScoredAction<Action, S>> bestAction,
+			DecisionMonitor monitor, DecisionBudget.Tracker budget) {
+		boolean monitored = monitor.isEnabled();
+		Object context = monitored ? monitor.onDecisionStart(agent) : null;
+		long start = monitored ? System.nanoTime() : 0;
+
+		Set<Action> candidateActions = agent.possibleActions(env);
+		Set<Action> selectedActions = ActionSet.emptyLike(candidateActions);
+		ContradictionMatrix<Action> contradictions = agent
+				.contradictionMatrix();
+		int possible = candidateActions.size();
+
+		// the score of the already selected actions, which the best candidate
+		// must not worsen
+		S currentScore = cache.score(selectedActions);
+
+		boolean stop = false;
+
+		while (!candidateActions.isEmpty() && !stop && !budget.exhausted()) {
+			if (monitored) {
+				monitor.onIteration(candidateActions.size());
+				monitor.onComparison();
+			}
+
+			ScoredAction<Action, S> best = bestAction.apply(candidateActions,
+					selectedActions);
+
+			// no candidate could be evaluated within the budget
+			if (best == null
+					|| comparator.compare(best.score, currentScore) > 0) {
+				stop = true;
+			} else {
+				Action action = best.action;
+				currentScore = best.score;
+				selectedActions.add(action);
+				candidateActions.remove(action);
+
+				// the candidates contradicting the previously selected actions
+				// were already removed, so only the new action is checked
+				// against the contradiction matrix
+				if (contradictions != null) {
+					contradictions.prune(candidateActions, action);
+				} else {
+					candidateActions.removeIf(a -> !agent.isCompatible(env,
+							selectedActions, a));
+				}
+			}
+
+			// the budget is only enforced once all the candidates were
+			// evaluated, so an agent which can act always does
+			budget.onStep();
+		}
+
+		if (monitored) {
+			monitor.onDecision(agent, possible, selectedActions.size(),
+					System.nanoTime() - start, context);
+		}
+
+		return selectedActions;
+	}
+
+	/**
+	 * Returns the first candidate action whose score is minimal. Each candidate
+	 * is scored exactly once, concurrently if a pool is provided. Once the
+	 * budget is exhausted, the remaining candidates are not scored anymore, and
+	 * are ignored.
+	 * 
+	 * @param actions
+	 *            the candidate actions
+	 * @param cache
+	 *            the scores of the tested sets of actions
+	 * @param selectedActions
+	 *            the already selected actions
+	 * @param comparator
+	 *            the comparator of the scores
+	 * @param pool
+	 *            the pool in which the candidates are scored, or null to score
+	 *            them sequentially
+	 * @param monitor
+	 *            receives the events of the selection
+	 * @param budget
+	 *            the budget of the decision
+	 * @return the best action and its score, or null if no candidate could be
+	 *         scored within the budget
+	 */
+	static <Env, Action extends Function<Env, Env>, S> ScoredAction<Action, S> best(
+			Set<Action> actions, PredictionCache<Env, Action, S> cache,
+			Set<Action> selectedActions, Comparator<S> comparator,
+			ForkJoinPool pool, DecisionMonitor monitor,
+			DecisionBudget.Tracker budget) {
+		boolean monitored = monitor.isEnabled();
+		List<Action> candidates = new ArrayList<>(actions);
+
+		// evaluate the candidates concurrently if a pool is provided. The
+		// scores are then reduced in the same order as in the sequential
+		// case, so the selected action does not depend on the mode.
+		if (pool != null && candidates.size() > 1) {
+			pool.submit(
+					() -> candidates.parallelStream().forEach(
+							a -> {
+								if (!budget.exhausted()) {
+									cache.score(selectedActions, a);
+								}
+							})).join();
+		}
+
+		ScoredAction<Action, S> best = null;
+		for (Action action : candidates) {
+			S score = budget.exhausted() ? cache.cached(selectedActions,
+					action) : cache.score(selectedActions, action);
+			if (score == null) {
+				continue;
+			}
+			if (best == null) {
+				best = new ScoredAction<>(action, score);
+			} else {
+				if (monitored) {
+					monitor.onComparison();
+				}
+				if (comparator.compare(score, best.score) < 0) {
+					best = new ScoredAction<>(action, score);
+				}
+			}
+		}
+
+		return best;
+	}
+
+}
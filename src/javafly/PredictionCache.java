@@ -0,0 +1,170 @@
+package javafly;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javafly.util.ActionSet;
+
+/**
+ * <p>
+ * A cache of the scores (for instance the sorted predicted criticalities of
+ * the neighborhood) of an agent, for a given environment.
+ * </p>
+ *
+ * <p>
+ * Since the prediction functions of the agents are pure and the environment is
+ * immutable, the predicted criticalities only depend on the tested set of
+ * actions. A cache is thus valid for the whole duration of a decision, and
+ * allows each tested set of actions to be evaluated exactly once.
+ * </p>
+ *
+ * <p>
+ * The tested sets are copied before being used as keys, so the caller is free
+ * to mutate them afterwards (the {@link ActionSet}s are copied as bitsets).
+ * The cache can be shared by several threads evaluating different sets of
+ * actions concurrently.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <Env>
+ *            the environment of the agents
+ * @param <Action>
+ *            the type of actions available to the agent
+ * @param <S>
+ *            the score representation
+ */
+public final class PredictionCache<Env, Action extends Function<Env, Env>, S> {
+
+	/**
+	 * the environment in which the predictions are made
+	 */
+	private final Env env;
+
+	/**
+	 * computes the score of a set of actions in the environment
+	 */
+	private final Function<Set<Action>, S> scorer;
+
+	/**
+	 * maps the tested sets of actions to their scores
+	 */
+	private final Map<Set<Action>, S> scores = new ConcurrentHashMap<>();
+
+	/**
+	 * the budget of the decision, which counts the computed scores
+	 */
+	private final DecisionBudget.Tracker budget;
+
+	/**
+	 * @param env
+	 *            the environment in which the predictions are made
+	 * @param scorer
+	 *            computes the score of a set of actions in the environment
+	 *            (typically {@link Firefly#score(Object, Set)})
+	 */
+	public PredictionCache(Env env, Function<Set<Action>, S> scorer) {
+		this(env, scorer, DecisionBudget.Tracker.NONE);
+	}
+
+	/**
+	 * @param env
+	 *            the environment in which the predictions are made
+	 * @param scorer
+	 *            computes the score of a set of actions in the environment
+	 * @param budget
+	 *            the budget of the decision, where each computed score counts
+	 *            as one prediction
+	 */
+	PredictionCache(Env env, Function<Set<Action>, S> scorer,
+			DecisionBudget.Tracker budget) {
+		this.env = env;
+		this.scorer = scorer;
+		this.budget = budget;
+	}
+
+	/**
+	 * @return the environment in which the predictions are made
+	 */
+	public Env env() {
+		return env;
+	}
+
+	/**
+	 * @return the budget of the decision using this cache
+	 */
+	DecisionBudget.Tracker budget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the score of the agent if the given actions are applied. The
+	 * score is only computed the first time a given set of actions is
+	 * requested.
+	 *
+	 * @param actions
+	 *            the actions to be applied
+	 * @return the score of the actions
+	 */
+	public S score(Set<Action> actions) {
+		S score = scores.get(actions);
+
+		if (score == null) {
+			Set<Action> key = Collections
+					.unmodifiableSet(ActionSet.copyOf(actions));
+			budget.onPrediction();
+			score = scorer.apply(key);
+
+			// another thread may have computed the same score meanwhile
+			S previous = scores.putIfAbsent(key, score);
+			if (previous != null) {
+				score = previous;
+			}
+		}
+
+		return score;
+	}
+
+	/**
+	 * Returns the score of the agent if the given action is applied in
+	 * addition to the already selected ones.
+	 *
+	 * @param selectedActions
+	 *            the already selected actions
+	 * @param action
+	 *            the tested action
+	 * @return the score of the actions
+	 */
+	public S score(Set<Action> selectedActions, Action action) {
+		Set<Action> testedActions = ActionSet.copyOf(selectedActions);
+		testedActions.add(action);
+		return score(testedActions);
+	}
+
+	/**
+	 * Returns the score of the agent if the given action is applied in
+	 * addition to the already selected ones, only if it was already computed.
+	 *
+	 * @param selectedActions
+	 *            the already selected actions
+	 * @param action
+	 *            the tested action
+	 * @return the score of the actions, or null if it was not computed yet
+	 */
+	public S cached(Set<Action> selectedActions, Action action) {
+		Set<Action> testedActions = ActionSet.copyOf(selectedActions);
+		testedActions.add(action);
+		return scores.get(testedActions);
+	}
+
+	/**
+	 * @return the number of distinct sets of actions evaluated so far
+	 */
+	public int size() {
+		return scores.size();
+	}
+
+}
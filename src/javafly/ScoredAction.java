@@ -0,0 +1,36 @@
+package javafly;
+
+/**
+ * An action associated to its score, for instance the sorted predicted
+ * criticalities of the neighborhood of the agent if it is applied.
+ * 
+ * @author jorquera
+ *
+ * @param <Action>
+ *            the type of actions available to the agent
+ * @param <S>
+ *            the score representation
+ */
+public final class ScoredAction<Action, S> {
+
+	/**
+	 * the scored action
+	 */
+	public final Action action;
+
+	/**
+	 * the score of the action
+	 */
+	public final S score;
+
+	public ScoredAction(Action action, S score) {
+		this.action = action;
+		this.score = score;
+	}
+
+	@Override
+	public String toString() {
+		return action + ": " + score;
+	}
+
+}
@@ -0,0 +1,144 @@
+package javafly.example.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javafly.AsyncFireflyRuntime;
+import javafly.FireflyRuntime;
+import javafly.example.simplefly.Action;
+import javafly.example.simplefly.Environment;
+import javafly.example.simplefly.SimpleFly;
+
+/**
+ * <p>
+ * Runs several populations with the asynchronous runtime (see {@link Main}),
+ * and compares the result with the rounds of the {@link FireflyRuntime} on the
+ * same population.
+ * </p>
+ *
+ * <p>
+ * Since the result of the asynchronous runtime depends on the scheduling of
+ * the agents, the values are not compared. Instead, both runtimes must become
+ * quiescent, and both results must be stable: no agent may act anymore in the
+ * final environment of either runtime. A quiescent asynchronous runtime which
+ * missed a notification would leave some agents acting.
+ * </p>
+ *
+ * <p>
+ * Some runs only manage half of the agents, whose neighbors of the other half
+ * keep their initial values (as the ghost copies of agents run by another
+ * process).
+ * </p>
+ *
+ * <p>
+ * The process exits with status 1 if a check fails.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class Check {
+
+	/**
+	 * the maximal number of rounds of the round-based runtime
+	 */
+	private static final int maxRounds = 10_000;
+
+	/**
+	 * the checked runs: threads managed topology size [degree [seed]], where
+	 * managed is "all" or "half"
+	 */
+	private static final String[][] runs = {
+			{ "1", "all", "CHAIN", "50" }, { "4", "all", "CHAIN", "200" },
+			{ "4", "all", "LATTICE_2D", "400" },
+			{ "2", "all", "LATTICE_3D", "343" },
+			{ "4", "all", "SCALE_FREE", "200" },
+			{ "4", "half", "CHAIN", "200" } };
+
+	public static void main(String[] args) throws InterruptedException {
+		boolean failed = false;
+		for (String[] config : runs) {
+			int threads = Integer.parseInt(config[0]);
+			boolean half = config[1].equals("half");
+			String[] population = Arrays.copyOfRange(config, 2, config.length);
+
+			String error = check(threads, half, population);
+			System.out.println((error == null ? "ok     " : "FAILED ")
+					+ String.join(" ", config)
+					+ (error == null ? "" : ": " + error));
+			failed |= error != null;
+		}
+
+		if (failed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return the reason why the run failed, or null
+	 */
+	private static String check(int threads, boolean half,
+			String[] population) throws InterruptedException {
+		Environment env = Main.generate(population);
+		List<SimpleFly> agents = new ArrayList<>(env.refs.values());
+		if (half) {
+			agents = agents.subList(0, agents.size() / 2);
+		}
+
+		FireflyRuntime<Environment, Action, Double, SimpleFly> rounds = new FireflyRuntime<>(
+				agents, env);
+		while (!rounds.isQuiescent() && rounds.rounds() < maxRounds) {
+			rounds.round();
+		}
+		if (!rounds.isQuiescent()) {
+			return "the rounds are not quiescent after " + maxRounds
+					+ " rounds";
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		AsyncFireflyRuntime<Environment, Action, Double, SimpleFly> async = new AsyncFireflyRuntime<>(
+				agents, env, executor);
+		try {
+			async.start();
+			if (!async.awaitQuiescence(Main.timeout, TimeUnit.SECONDS)) {
+				return "the asynchronous runtime is not quiescent after "
+						+ Main.timeout + " s";
+			}
+		} catch (ExecutionException e) {
+			return e.getCause().toString();
+		} finally {
+			async.stop();
+			executor.shutdownNow();
+		}
+
+		int acting = acting(agents, rounds.env());
+		if (acting > 0) {
+			return acting + " agents still act after the rounds";
+		}
+		acting = acting(agents, async.env());
+		if (acting > 0) {
+			return acting + " agents still act after the asynchronous run";
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of agents whose decision is not empty in the given
+	 *         environment
+	 */
+	private static int acting(List<SimpleFly> agents, Environment env) {
+		int acting = 0;
+		for (SimpleFly agent : agents) {
+			if (!agent.decision(env).isEmpty()) {
+				acting++;
+			}
+		}
+		return acting;
+	}
+
+}
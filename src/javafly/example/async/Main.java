@@ -0,0 +1,96 @@
+package javafly.example.async;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javafly.AsyncFireflyRuntime;
+import javafly.CriticalityIndex;
+import javafly.example.simplefly.Action;
+import javafly.example.simplefly.Environment;
+import javafly.example.simplefly.Generator;
+import javafly.example.simplefly.SimpleFly;
+
+/**
+ * <p>
+ * Runs a generated population of SimpleFly agents (see {@link Generator})
+ * asynchronously (see {@link AsyncFireflyRuntime}): each agent decides and
+ * acts as soon as its neighborhood changes, without waiting for the other
+ * agents.
+ * </p>
+ *
+ * <p>
+ * The arguments are: threads topology size [degree [seed]], for instance
+ * "4 LATTICE_2D 10000".
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class Main {
+
+	/**
+	 * the maximal duration of a run, in seconds
+	 */
+	static final long timeout = 60;
+
+	public static void main(String[] args) throws InterruptedException,
+			ExecutionException {
+		if (args.length < 3) {
+			System.err.println("usage: threads topology size [degree [seed]]");
+			System.exit(1);
+		}
+
+		int threads = Integer.parseInt(args[0]);
+		Environment env = generate(Arrays.copyOfRange(args, 1,
+				args.length));
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			AsyncFireflyRuntime<Environment, Action, Double, SimpleFly> runtime = new AsyncFireflyRuntime<>(
+					env.refs.values(), env, executor);
+
+			System.out.println("--- " + env.refs.size() + " agents, "
+					+ threads + " threads");
+
+			runtime.start();
+			boolean quiescent = runtime.awaitQuiescence(timeout,
+					TimeUnit.SECONDS);
+			runtime.stop();
+
+			System.out.println("decisions: " + runtime.decisions()
+					+ ", commits: " + runtime.commits() + ", conflicts: "
+					+ runtime.conflicts() + ", notifications: "
+					+ runtime.notifications() + ", wake-ups: "
+					+ runtime.wakeUps());
+
+			CriticalityIndex<Environment, Double, SimpleFly> index = new CriticalityIndex<>(
+					runtime.agents(), runtime.env(), 0.0);
+			System.out.println("max criticality: " + index.maxCriticality());
+			System.out.println(index.allZero() ? "--- SUCCESS !"
+					: quiescent ? "--- STUCK !" : "--- TIMEOUT !");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param args
+	 *            topology size [degree [seed]]
+	 * @return the initial environment of a generated population
+	 */
+	static Environment generate(String[] args) {
+		Generator generator = new Generator(Generator.Topology.valueOf(args[0]
+				.toUpperCase()), Integer.parseInt(args[1]));
+		if (args.length > 2) {
+			generator = generator.withDegree(Integer.parseInt(args[2]));
+		}
+		if (args.length > 3) {
+			generator = generator.withSeed(Long.parseLong(args[3]));
+		}
+		return generator.generate();
+	}
+
+}
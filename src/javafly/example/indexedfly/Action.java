@@ -0,0 +1,29 @@
+package javafly.example.indexedfly;
+
+import javafly.BatchAction;
+
+/**
+ * 
+ * The common interface for the possible actions of the agents. Only used for
+ * type consistency
+ * 
+ * @author jorquera
+ *
+ */
+public interface Action extends
+		BatchAction<Environment, Environment.Batch> {
+
+	/**
+	 * Returns the predicted environment if this action is applied, which only
+	 * records the values modified by the action on top of the given
+	 * environment. The default implementation applies the action.
+	 * 
+	 * @param t
+	 *            the current (or predicted) environment
+	 * @return the predicted environment
+	 */
+	default Environment predict(Environment t) {
+		return apply(t);
+	}
+
+}
@@ -0,0 +1,42 @@
+package javafly.example.indexedfly;
+
+/**
+ * 
+ * An action where the agent decreases its own value
+ * 
+ * @author jorquera
+ *
+ */
+final class Decrease implements Action {
+	private final int ordinal;
+
+	public Decrease(int ordinal) {
+		super();
+		this.ordinal = ordinal;
+	}
+
+	@Override
+	public Environment apply(Environment t) {
+		// decrease the value of the agent by 1 (if possible)
+		return t.withValue(ordinal,
+				Math.max(t.value(ordinal) - 1, Environment.minValue));
+	}
+
+	@Override
+	public void applyTo(Environment.Batch batch) {
+		batch.setValue(ordinal,
+				Math.max(batch.value(ordinal) - 1, Environment.minValue));
+	}
+
+	@Override
+	public Environment predict(Environment t) {
+		return t.predict(ordinal,
+				Math.max(t.value(ordinal) - 1, Environment.minValue));
+	}
+
+	@Override
+	public String toString() {
+		return "Decrease";
+	}
+
+}
@@ -0,0 +1,422 @@
+package javafly.example.indexedfly;
+
+import java.util.Arrays;
+
+import javafly.BatchEnvironment;
+
+/**
+ * The Environment object contains the mutable state of the entire system.
+ * 
+ * Contrary to the simplefly example, the agents are identified by an int
+ * ordinal (their position in the arrays of the environment) instead of a
+ * String id. The references to the agents are stored in an array, and their
+ * values in an int array, so that reading the value of an agent is a simple
+ * array access, without hashing nor unboxing.
+ * 
+ * Since the environment is immutable, a modified value is not written in the
+ * values array but in a small sorted overlay of modified values, which shares
+ * the values array of the previous environment. When the overlay becomes too
+ * big, it is merged in a new copy of the values array. Modifying a value thus
+ * costs O(sqrt(n)) amortized, instead of a full copy of the values.
+ * 
+ * Several actions can also be applied at once through a {@link Batch}: the
+ * modified values are sorted once, then merged with the overlay in a single
+ * pass, and the values array is copied at most once.
+ * 
+ * In order to evaluate hypothetical actions, an environment can also be a
+ * predicted environment: the predicted values are recorded in a second, tiny
+ * overlay which is never merged in the values (see
+ * {@link #predict(int, int)}). A prediction thus costs O(1) whatever the size
+ * of the overlay of modified values, and all the predictions made on the same
+ * environment share its arrays.
+ * 
+ */
+public final class Environment implements
+		BatchEnvironment<Environment, Environment.Batch> {
+
+	/*
+	 * Some global constants
+	 */
+	static final int maxValue = 10;
+	static final int minValue = 0;
+
+	/**
+	 * the references to the agents, indexed by their ordinal. The array is
+	 * shared by all the environments and must not be modified.
+	 */
+	final IndexedFly[] refs;
+
+	/**
+	 * the values of the agents, indexed by their ordinal (without the values
+	 * of the overlay). The array is shared by several environments and must
+	 * not be modified.
+	 */
+	private final int[] values;
+
+	/**
+	 * the sorted ordinals of the agents whose value is overlaid
+	 */
+	private final int[] overlayOrdinals;
+
+	/**
+	 * the overlaid values, in the order of overlayOrdinals
+	 */
+	private final int[] overlayValues;
+
+	/**
+	 * the ordinals of the agents whose value is predicted (empty if this is
+	 * not a predicted environment)
+	 */
+	private final int[] predictedOrdinals;
+
+	/**
+	 * the predicted values, in the order of predictedOrdinals
+	 */
+	private final int[] predictedValues;
+
+	/**
+	 * the maximal size of the overlay before it is merged in the values
+	 */
+	private final int maxOverlay;
+
+	/**
+	 * @param refs
+	 *            the agents, indexed by their ordinal
+	 * @param values
+	 *            the values of the agents, indexed by their ordinal
+	 */
+	public Environment(IndexedFly[] refs, int[] values) {
+		this(refs, values.clone(), new int[0], new int[0]);
+	}
+
+	private Environment(IndexedFly[] refs, int[] values, int[] overlayOrdinals,
+			int[] overlayValues) {
+		this(refs, values, overlayOrdinals, overlayValues, new int[0],
+				new int[0]);
+	}
+
+	private Environment(IndexedFly[] refs, int[] values, int[] overlayOrdinals,
+			int[] overlayValues, int[] predictedOrdinals, int[] predictedValues) {
+		this.refs = refs;
+		this.values = values;
+		this.overlayOrdinals = overlayOrdinals;
+		this.overlayValues = overlayValues;
+		this.predictedOrdinals = predictedOrdinals;
+		this.predictedValues = predictedValues;
+		this.maxOverlay = Math.max(8, (int) Math.sqrt(values.length));
+	}
+
+	/**
+	 * @return the number of agents
+	 */
+	public int size() {
+		return refs.length;
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of an agent
+	 * @return the agent
+	 */
+	public IndexedFly agent(int ordinal) {
+		return refs[ordinal];
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of an agent
+	 * @return the current value of the agent
+	 */
+	public int value(int ordinal) {
+		// the predictions only contain the few values modified by the
+		// tentative actions, so a linear search is enough
+		for (int i = 0; i < predictedOrdinals.length; i++) {
+			if (predictedOrdinals[i] == ordinal) {
+				return predictedValues[i];
+			}
+		}
+		if (overlayOrdinals.length != 0) {
+			int idx = Arrays.binarySearch(overlayOrdinals, ordinal);
+			if (idx >= 0) {
+				return overlayValues[idx];
+			}
+		}
+		return values[ordinal];
+	}
+
+	/**
+	 * Returns a new environment where the value of the given agent is
+	 * replaced.
+	 * 
+	 * @param ordinal
+	 *            the ordinal of the agent
+	 * @param value
+	 *            the new value of the agent
+	 * @return the new environment
+	 */
+	public Environment withValue(int ordinal, int value) {
+		if (predictedOrdinals.length != 0) {
+			return actual().withValue(ordinal, value);
+		}
+
+		int idx = Arrays.binarySearch(overlayOrdinals, ordinal);
+
+		if (idx >= 0) {
+			// already overlaid: replace the value
+			int[] newValues = overlayValues.clone();
+			newValues[idx] = value;
+			return new Environment(refs, values, overlayOrdinals, newValues);
+		}
+
+		if (overlayOrdinals.length >= maxOverlay) {
+			// merge the overlay in a new copy of the values
+			int[] newValues = values.clone();
+			for (int i = 0; i < overlayOrdinals.length; i++) {
+				newValues[overlayOrdinals[i]] = overlayValues[i];
+			}
+			newValues[ordinal] = value;
+			return new Environment(refs, newValues, new int[0], new int[0]);
+		}
+
+		// insert the value in the overlay
+		int pos = -idx - 1;
+		int n = overlayOrdinals.length;
+		int[] newOrdinals = new int[n + 1];
+		int[] newValues = new int[n + 1];
+		System.arraycopy(overlayOrdinals, 0, newOrdinals, 0, pos);
+		System.arraycopy(overlayValues, 0, newValues, 0, pos);
+		newOrdinals[pos] = ordinal;
+		newValues[pos] = value;
+		System.arraycopy(overlayOrdinals, pos, newOrdinals, pos + 1, n - pos);
+		System.arraycopy(overlayValues, pos, newValues, pos + 1, n - pos);
+		return new Environment(refs, values, newOrdinals, newValues);
+	}
+
+	/**
+	 * Returns a predicted environment where the value of the given agent is
+	 * replaced. The arrays of this environment are shared, and only the
+	 * predicted value is recorded.
+	 * 
+	 * @param ordinal
+	 *            the ordinal of the agent
+	 * @param value
+	 *            the predicted value of the agent
+	 * @return the predicted environment
+	 */
+	public Environment predict(int ordinal, int value) {
+		int n = predictedOrdinals.length;
+		for (int i = 0; i < n; i++) {
+			if (predictedOrdinals[i] == ordinal) {
+				int[] newValues = predictedValues.clone();
+				newValues[i] = value;
+				return new Environment(refs, values, overlayOrdinals,
+						overlayValues, predictedOrdinals, newValues);
+			}
+		}
+
+		int[] newOrdinals = Arrays.copyOf(predictedOrdinals, n + 1);
+		int[] newValues = Arrays.copyOf(predictedValues, n + 1);
+		newOrdinals[n] = ordinal;
+		newValues[n] = value;
+		return new Environment(refs, values, overlayOrdinals, overlayValues,
+				newOrdinals, newValues);
+	}
+
+	/**
+	 * @return the environment where the predicted values (if any) become
+	 *         actual values
+	 */
+	private Environment actual() {
+		Environment env = new Environment(refs, values, overlayOrdinals,
+				overlayValues);
+		for (int i = 0; i < predictedOrdinals.length; i++) {
+			env = env.withValue(predictedOrdinals[i], predictedValues[i]);
+		}
+		return env;
+	}
+
+	@Override
+	public Batch newBatch() {
+		return new Batch(this);
+	}
+
+	@Override
+	public Environment apply(Batch batch) {
+		if (batch.env != this) {
+			throw new IllegalArgumentException("batch of another environment");
+		}
+
+		int n = batch.size;
+		if (n == 0) {
+			return this;
+		}
+		if (predictedOrdinals.length != 0) {
+			// the values of the batch already include the predicted values
+			Batch actual = actual().newBatch();
+			for (int k = 0; k < n; k++) {
+				actual.setValue(batch.ordinals[k], batch.values[k]);
+			}
+			return actual.env.apply(actual);
+		}
+
+		// sort the modified values of the batch by ordinal, in one pass of
+		// a primitive sort: the ordinals are distinct, and each one is packed
+		// with the position of its value
+		long[] keys = new long[n];
+		for (int k = 0; k < n; k++) {
+			keys[k] = ((long) batch.ordinals[k] << 32) | k;
+		}
+		Arrays.sort(keys);
+		int[] ordinals = new int[n];
+		int[] modified = new int[n];
+		for (int k = 0; k < n; k++) {
+			ordinals[k] = (int) (keys[k] >>> 32);
+			modified[k] = batch.values[(int) keys[k]];
+		}
+
+		// merge the overlay and the batch, the values of the batch replacing
+		// the overlaid ones
+		int m = overlayOrdinals.length;
+		int[] newOrdinals = new int[m + n];
+		int[] newValues = new int[m + n];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while (i < m || j < n) {
+			if (j == n || (i < m && overlayOrdinals[i] < ordinals[j])) {
+				newOrdinals[size] = overlayOrdinals[i];
+				newValues[size++] = overlayValues[i++];
+			} else {
+				if (i < m && overlayOrdinals[i] == ordinals[j]) {
+					i++;
+				}
+				newOrdinals[size] = ordinals[j];
+				newValues[size++] = modified[j++];
+			}
+		}
+
+		if (size > maxOverlay) {
+			// merge the overlay in a new copy of the values
+			int[] merged = values.clone();
+			for (int k = 0; k < size; k++) {
+				merged[newOrdinals[k]] = newValues[k];
+			}
+			return new Environment(refs, merged, new int[0], new int[0]);
+		}
+
+		return new Environment(refs, values,
+				Arrays.copyOf(newOrdinals, size), Arrays.copyOf(newValues,
+						size));
+	}
+
+	/**
+	 * The values modified by a batch of actions, which are merged in a new
+	 * environment by {@link Environment#apply(Batch)}.
+	 */
+	public static final class Batch {
+
+		/**
+		 * the modified environment
+		 */
+		private final Environment env;
+
+		/**
+		 * the ordinals of the modified values, in the order of their first
+		 * modification
+		 */
+		private int[] ordinals = new int[4];
+
+		/**
+		 * the modified values, in the order of ordinals
+		 */
+		private int[] values = new int[4];
+
+		private int size = 0;
+
+		/**
+		 * an open addressing hash table of the positions of the modified
+		 * values (plus one, 0 marking the free slots), indexed by ordinal
+		 */
+		private int[] slots = new int[8];
+
+		private Batch(Environment env) {
+			this.env = env;
+		}
+
+		/**
+		 * @param ordinal
+		 *            the ordinal of an agent
+		 * @return the value of the agent, including the modifications of the
+		 *         batch
+		 */
+		public int value(int ordinal) {
+			int idx = indexOf(ordinal);
+			return idx < 0 ? env.value(ordinal) : values[idx];
+		}
+
+		/**
+		 * @param ordinal
+		 *            the ordinal of an agent
+		 * @param value
+		 *            the new value of the agent
+		 */
+		public void setValue(int ordinal, int value) {
+			int idx = indexOf(ordinal);
+			if (idx >= 0) {
+				values[idx] = value;
+				return;
+			}
+			if (size == ordinals.length) {
+				ordinals = Arrays.copyOf(ordinals, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			ordinals[size] = ordinal;
+			values[size++] = value;
+
+			if (2 * size > slots.length) {
+				// keep the table at most half full
+				slots = new int[slots.length * 2];
+				for (int i = 0; i < size; i++) {
+					slots[free(ordinals[i])] = i + 1;
+				}
+			} else {
+				slots[free(ordinal)] = size;
+			}
+		}
+
+		/**
+		 * @return the position of the modified value of the agent, or -1
+		 */
+		private int indexOf(int ordinal) {
+			int mask = slots.length - 1;
+			for (int i = hash(ordinal) & mask; slots[i] != 0; i = (i + 1)
+					& mask) {
+				if (ordinals[slots[i] - 1] == ordinal) {
+					return slots[i] - 1;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return the free slot where the position of the modified value of
+		 *         the agent can be stored
+		 */
+		private int free(int ordinal) {
+			int mask = slots.length - 1;
+			int i = hash(ordinal) & mask;
+			while (slots[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		private static int hash(int ordinal) {
+			// spreads the consecutive ordinals
+			int h = ordinal * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+package javafly.example.indexedfly;
+
+/**
+ * 
+ * An action where the agent increases its own value
+ * 
+ * @author jorquera
+ *
+ */
+final class Increase implements Action {
+	private final int ordinal;
+
+	public Increase(int ordinal) {
+		super();
+		this.ordinal = ordinal;
+	}
+
+	@Override
+	public Environment apply(Environment t) {
+		// increase the value of the agent by 1 (if possible)
+		return t.withValue(ordinal,
+				Math.min(t.value(ordinal) + 1, Environment.maxValue));
+	}
+
+	@Override
+	public void applyTo(Environment.Batch batch) {
+		batch.setValue(ordinal,
+				Math.min(batch.value(ordinal) + 1, Environment.maxValue));
+	}
+
+	@Override
+	public Environment predict(Environment t) {
+		return t.predict(ordinal,
+				Math.min(t.value(ordinal) + 1, Environment.maxValue));
+	}
+
+	@Override
+	public String toString() {
+		return "Increase";
+	}
+
+}
@@ -0,0 +1,177 @@
+package javafly.example.indexedfly;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javafly.DoubleFirefly;
+import javafly.util.ActionIndex;
+import javafly.util.ContradictionMatrix;
+
+/**
+ * The same agent as in the simplefly example, where the agents are identified
+ * by their ordinal in the environment instead of a String id.
+ * 
+ * @author jorquera
+ *
+ */
+public final class IndexedFly implements
+		DoubleFirefly<Environment, Action, IndexedFly> {
+
+	/**
+	 * the ordinal of the agent in the environment
+	 */
+	final int ordinal;
+
+	/**
+	 * the name of the agent, only used for display
+	 */
+	private final String name;
+
+	/**
+	 * the ordinals of the neighbors of the agent (including itself)
+	 * 
+	 * NOTE: in this application, the neighborhood is static. When it is not the
+	 * case, it should be included in the environment and not in the agent
+	 * itself (agents should be stateless).
+	 * 
+	 */
+	private final int[] neighbors;
+
+	/*
+	 * the possible actions for the agent
+	 */
+	private final Action incr;
+	private final Action decr;
+
+	/**
+	 * the alphabet of the possible actions, so that the sets of actions are
+	 * bitsets
+	 */
+	private final ActionIndex<Action> alphabet;
+
+	/**
+	 * the contradictions between the possible actions
+	 */
+	private final ContradictionMatrix<Action> contradictions;
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of the agent in the environment
+	 * @param name
+	 *            the name of the agent
+	 * @param neighbors
+	 *            the ordinals of the neighbors of the agent (without itself)
+	 */
+	public IndexedFly(int ordinal, String name, int[] neighbors) {
+		super();
+
+		this.ordinal = ordinal;
+		this.name = name;
+
+		// adding itself to the neighbors (important)
+		this.neighbors = new int[neighbors.length + 1];
+		System.arraycopy(neighbors, 0, this.neighbors, 0, neighbors.length);
+		this.neighbors[neighbors.length] = ordinal;
+
+		this.incr = new Increase(ordinal);
+		this.decr = new Decrease(ordinal);
+		this.alphabet = ActionIndex.of(incr, decr);
+
+		// the two potential actions are mutually exclusive, whatever the
+		// environment
+		this.contradictions = ContradictionMatrix.empty(alphabet)
+				.withExclusive(incr, decr);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	@Override
+	public List<IndexedFly> predictedNeighbors(Environment e, Set<Action> a) {
+		// since the neighborhood is static, this function is very simple
+		// in this case we simply map the neighbors ordinals to their references
+		List<IndexedFly> res = new ArrayList<>(neighbors.length);
+		for (int n : neighbors) {
+			res.add(e.agent(n));
+		}
+		return res;
+	}
+
+	@Override
+	public Set<Action> possibleActions(Environment e) {
+		// in this application there is only two potential actions, which
+		// are only possible if the agent is not at the corresponding
+		// boundary
+
+		int currentValue = e.value(ordinal);
+
+		Set<Action> possibleActions = alphabet.emptySet();
+		if (currentValue < Environment.maxValue) {
+			possibleActions.add(incr);
+		}
+		if (currentValue > Environment.minValue) {
+			possibleActions.add(decr);
+		}
+
+		return possibleActions;
+
+	}
+
+	@Override
+	public Set<Action> contradictoryActions(Environment env, Set<Action> actions) {
+		// the two potential actions are mutually exclusive. If one is
+		// selected the other must be excluded
+		return contradictions.contradictions(actions);
+	}
+
+	@Override
+	public ContradictionMatrix<Action> contradictionMatrix() {
+		return contradictions;
+	}
+
+	@Override
+	public double criticalityAsDouble(Environment env) {
+		// the criticality is the biggest distance between the value of the
+		// agent and the ones of its neighbors, divided by the max possible
+		// gap. The neighbors are read directly from the environment arrays.
+
+		final int value = env.value(ordinal);
+
+		int maxDist = 0;
+		for (int n : neighbors) {
+			maxDist = Math.max(maxDist, Math.abs(value - env.value(n)));
+		}
+
+		// convert to criticality
+		return maxDist
+				/ (double) (Environment.maxValue - Environment.minValue);
+	}
+
+	@Override
+	public double predictedCriticalityAsDouble(Environment env,
+			Set<Action> actions,
+			DoubleFirefly<Environment, Action, IndexedFly> agent) {
+		// as in the simplefly example, the prediction directly calls the
+		// criticality function of the agent on the anticipated environment
+
+		// There should be at most one selected action
+		// since there are only two, contradictory actions possible
+		assert actions.size() <= 1;
+
+		Environment predictedEnv = env;
+		if (!actions.isEmpty()) {
+			// predict the effect of the selected action on the current
+			// environment (without building a whole new environment)
+			predictedEnv = actions.iterator().next().predict(env);
+		}
+
+		// return the criticality of the agent in the predicted
+		// environment
+		return agent.criticalityAsDouble(predictedEnv);
+
+	}
+
+}
@@ -0,0 +1,79 @@
+package javafly.example.indexedfly;
+
+import java.util.Arrays;
+
+import javafly.CriticalityIndex;
+import javafly.FireflyRuntime;
+
+/**
+ * The simplefly example, using the ordinal-indexed environment: the agents try
+ * to synchronize their values by increasing or decreasing them.
+ * 
+ * @author jorquera
+ *
+ */
+public final class Main {
+
+	public static void main(String[] args) {
+
+		// initialize the environment
+		IndexedFly[] refs = new IndexedFly[] {
+				new IndexedFly(0, "a", new int[] { 1 }),
+				new IndexedFly(1, "b", new int[] { 0, 2 }),
+				new IndexedFly(2, "c", new int[] { 1, 3 }),
+				new IndexedFly(3, "d", new int[] { 2 }) };
+
+		int[] values = new int[] { 2, 9, 3, 6 };
+
+		FireflyRuntime<Environment, Action, Double, IndexedFly> runtime = new FireflyRuntime<>(
+				Arrays.asList(refs), new Environment(refs, values));
+
+		// the criticalities are only computed again for the agents whose
+		// neighborhood was modified
+		CriticalityIndex<Environment, Double, IndexedFly> index = new CriticalityIndex<>(
+				runtime.agents(), runtime.env(), 0.0);
+		runtime.setIndex(index);
+
+		System.out.println("--- INITIAL STATE");
+		printEnv(runtime.env(), index);
+
+		// run the system until it has converged
+		// (all criticalities are equal to 0), or until no agent can improve
+		// its neighborhood anymore
+		boolean converged = index.allZero();
+		while (!converged && !runtime.isQuiescent()) {
+
+			System.out.println("### TURN " + (runtime.rounds() + 1));
+
+			runtime.round();
+
+			// check if the system has converged
+			converged = index.allZero();
+
+			// display the environment state
+			printEnv(runtime.env(), index);
+		}
+		System.out.println(converged ? "--- SUCCESS !" : "--- STUCK !");
+
+	}
+
+	/**
+	 * Print the environment stats
+	 * 
+	 * @param env
+	 *            the environment to display
+	 * @param index
+	 *            the criticalities of the agents in this environment
+	 */
+	private static void printEnv(final Environment env,
+			final CriticalityIndex<Environment, Double, IndexedFly> index) {
+		for (int i = 0; i < env.size(); i++) {
+			System.out.print(env.agent(i) + ": ( value: " + env.value(i)
+					+ ", crit: " + index.criticality(env.agent(i)) + " ) ");
+
+		}
+		System.out.println("\nmax criticality: " + index.maxCriticality()
+				+ "\n");
+	}
+
+}
@@ -0,0 +1,27 @@
+package javafly.example.mobilefly;
+
+import java.util.function.Function;
+
+/**
+ * 
+ * The common interface for the possible actions of the agents.
+ * 
+ * @author jorquera
+ *
+ */
+public interface Action extends Function<Environment, Environment> {
+
+	/**
+	 * Returns the predicted environment if this action is applied, which only
+	 * records the positions modified by the action on top of the given
+	 * environment. The default implementation applies the action.
+	 * 
+	 * @param t
+	 *            the current (or predicted) environment
+	 * @return the predicted environment
+	 */
+	default Environment predict(Environment t) {
+		return apply(t);
+	}
+
+}
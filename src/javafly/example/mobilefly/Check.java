@@ -0,0 +1,94 @@
+package javafly.example.mobilefly;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javafly.FireflyRuntime;
+
+/**
+ * <p>
+ * Checks that the rounds of the {@link FireflyRuntime} give the same result
+ * as a sequential loop, where each agent decides and acts in turn, on several
+ * generated populations (see {@link Main}).
+ * </p>
+ *
+ * <p>
+ * Since the runtime only schedules the agents close to an agent which acted,
+ * and replaces the decisions made against the snapshot of the round only for
+ * the agents close to an agent which acted before them, the positions only
+ * stay the same if the neighborhoods of the agents (see
+ * {@link MobileFly#predictedNeighbors(Environment, Set)}) include all the
+ * agents whose decision depends on them.
+ * </p>
+ *
+ * <p>
+ * The arguments are: [size [seeds [rounds]]], for instance "60 30 50". The
+ * process exits with status 1 if a run diverges.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class Check {
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+		int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+		int failed = 0;
+		for (long seed = 0; seed < seeds; seed++) {
+			String error = check(size, seed, rounds);
+			System.out.println((error == null ? "ok     " : "FAILED ")
+					+ "seed " + seed + (error == null ? "" : ": " + error));
+			if (error != null) {
+				failed++;
+			}
+		}
+		System.out.println(failed + " of " + seeds + " runs diverged");
+
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return the reason why the runtime diverged from the sequential loop, or
+	 *         null
+	 */
+	private static String check(int size, long seed, int maxRounds) {
+		Environment env = Main.generate(size, seed);
+		FireflyRuntime<Environment, Action, Double, MobileFly> runtime = new FireflyRuntime<>(
+				env.refs.values(), env);
+		List<MobileFly> agents = new ArrayList<>(runtime.agents());
+
+		for (int round = 1; round <= maxRounds; round++) {
+			// the same round, in sequence
+			int acting = 0;
+			for (MobileFly agent : agents) {
+				Set<Action> actions = agent.decision(env);
+				if (!actions.isEmpty()) {
+					env = agent.act(env, actions);
+					acting++;
+				}
+			}
+
+			runtime.round();
+
+			for (MobileFly agent : agents) {
+				if (env.grid.x(agent) != runtime.env().grid.x(agent)
+						|| env.grid.y(agent) != runtime.env().grid.y(agent)) {
+					return "agent " + agent + " differs after round " + round;
+				}
+			}
+
+			if (acting == 0) {
+				return runtime.isQuiescent() ? null
+						: "the runtime is not quiescent after round " + round;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,79 @@
+package javafly.example.mobilefly;
+
+import java.util.Map;
+
+import javafly.util.SpatialGrid;
+
+/**
+ * The Environment object contains the mutable state of the entire system.
+ * 
+ * The environment in this case is composed of the references to the agents,
+ * and of a spatial index of their current positions in a square area. Since
+ * the neighborhood of an agent is made of the agents within a radius of its
+ * position, it is dynamic and is found through the index (see
+ * {@link SpatialGrid#neighborsWithin(Object, double)}).
+ * 
+ * The index is persistent, so that an action moving one agent shares most of
+ * the structure of the previous environment instead of copying it. In order
+ * to evaluate hypothetical actions, an environment can also be a predicted
+ * environment, whose index only records the predicted positions on top of the
+ * current one (see {@link #predict(MobileFly, double, double)}).
+ * 
+ */
+public final class Environment {
+
+	/*
+	 * Some global constants
+	 */
+	static final double side = 10.0;
+	static final double radius = 1.0;
+	static final double step = 0.25;
+
+	/**
+	 * maps the id of the agents to the agent refs
+	 */
+	public final Map<String, MobileFly> refs;
+
+	/**
+	 * the current positions of the agents
+	 */
+	public final SpatialGrid<MobileFly> grid;
+
+	public Environment(Map<String, MobileFly> refs, SpatialGrid<MobileFly> grid) {
+		this.refs = refs;
+		this.grid = grid;
+	}
+
+	/**
+	 * Returns a new environment where the given agent is moved.
+	 * 
+	 * @param agent
+	 *            the agent
+	 * @param x
+	 *            the new abscissa of the agent
+	 * @param y
+	 *            the new ordinate of the agent
+	 * @return the new environment
+	 */
+	public Environment withPosition(MobileFly agent, double x, double y) {
+		return new Environment(refs, grid.withPosition(agent, x, y));
+	}
+
+	/**
+	 * Returns a predicted environment where the given agent is moved. The
+	 * positions of this environment are shared, and only the predicted
+	 * position is recorded.
+	 * 
+	 * @param agent
+	 *            the agent
+	 * @param x
+	 *            the predicted abscissa of the agent
+	 * @param y
+	 *            the predicted ordinate of the agent
+	 * @return the predicted environment
+	 */
+	public Environment predict(MobileFly agent, double x, double y) {
+		return new Environment(refs, grid.predict(agent, x, y));
+	}
+
+}
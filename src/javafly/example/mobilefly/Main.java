@@ -0,0 +1,93 @@
+package javafly.example.mobilefly;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javafly.CriticalityIndex;
+import javafly.FireflyRuntime;
+import javafly.util.SpatialGrid;
+
+/**
+ * In this example, the agents start crowded in the center of a square area,
+ * and move until each of them is far enough from the others.
+ * 
+ * The arguments are: [size [seed]], for instance "60 42". By default, 40
+ * agents are generated.
+ * 
+ * @author jorquera
+ *
+ */
+public final class Main {
+
+	/**
+	 * the maximal number of rounds, since the agents of a crowded population
+	 * may keep moving back and forth
+	 */
+	private static final int maxRounds = 1000;
+
+	public static void main(String[] args) {
+
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+		Environment env = generate(size, seed);
+
+		FireflyRuntime<Environment, Action, Double, MobileFly> runtime = new FireflyRuntime<>(
+				env.refs.values(), env);
+
+		CriticalityIndex<Environment, Double, MobileFly> index = new CriticalityIndex<>(
+				runtime.agents(), runtime.env(), 0.0);
+		runtime.setIndex(index);
+
+		System.out.println("--- INITIAL STATE");
+		System.out.println(size + " agents, max criticality: "
+				+ index.maxCriticality() + "\n");
+
+		// run the system until no agent is too close to another one, or
+		// until no agent can improve its neighborhood anymore
+		boolean converged = index.allZero();
+		while (!converged && !runtime.isQuiescent()
+				&& runtime.rounds() < maxRounds) {
+			runtime.round();
+			converged = index.allZero();
+
+			System.out.println("### TURN " + runtime.rounds());
+			System.out.println(size + " agents, max criticality: "
+					+ index.maxCriticality() + "\n");
+		}
+		System.out.println(converged ? "--- SUCCESS !" : "--- STUCK !");
+	}
+
+	/**
+	 * @return a random coordinate in a segment of the size of the radius, in
+	 *         the center of the area, which is a multiple of the step of the
+	 *         moves (so that the agents can reach the exact radius from each
+	 *         other)
+	 */
+	private static double start(Random random) {
+		int steps = (int) (Environment.radius / Environment.step);
+		return (Environment.side - Environment.radius) / 2
+				+ random.nextInt(steps + 1) * Environment.step;
+	}
+
+	/**
+	 * @return an environment where the agents are placed randomly in a
+	 *         square of the size of the radius, in the center of the area
+	 */
+	static Environment generate(int size, long seed) {
+		Random random = new Random(seed);
+
+		Map<String, MobileFly> refs = new LinkedHashMap<>();
+		// the cells of the index are as large as the radius, so that a query
+		// reads at most 9 cells
+		SpatialGrid<MobileFly> grid = SpatialGrid.empty(Environment.radius);
+		for (int i = 0; i < size; i++) {
+			MobileFly agent = new MobileFly(Integer.toString(i));
+			refs.put(agent.id, agent);
+			grid = grid.withPosition(agent, start(random), start(random));
+		}
+		return new Environment(refs, grid);
+	}
+
+}
@@ -0,0 +1,146 @@
+package javafly.example.mobilefly;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javafly.DoubleFirefly;
+import javafly.util.ActionIndex;
+import javafly.util.ContradictionMatrix;
+
+/**
+ * An agent moving in a square area, which tries to keep a minimal distance
+ * with the other agents.
+ * 
+ * The criticality of an agent depends on the agents within a radius of its
+ * position (including itself). Since an agent can move by one step, and the
+ * other agents too, its predicted neighbors are the agents within the radius
+ * plus two steps. Contrary to the simplefly example, the neighborhood is
+ * dynamic: it is not stored in the agent, but found in the spatial index of
+ * the environment.
+ * 
+ * @author jorquera
+ *
+ */
+public final class MobileFly implements
+		DoubleFirefly<Environment, Action, MobileFly> {
+
+	/**
+	 * the unique id of the agent
+	 */
+	final String id;
+
+	/*
+	 * the possible actions for the agent
+	 */
+	private final Move left;
+	private final Move right;
+	private final Move down;
+	private final Move up;
+
+	/**
+	 * the alphabet of the possible actions, so that the sets of actions are
+	 * bitsets
+	 */
+	private final ActionIndex<Action> alphabet;
+
+	/**
+	 * the contradictions between the possible actions
+	 */
+	private final ContradictionMatrix<Action> contradictions;
+
+	public MobileFly(String id) {
+		super();
+
+		this.id = id;
+
+		this.left = new Move(this, -Environment.step, 0, "Left");
+		this.right = new Move(this, Environment.step, 0, "Right");
+		this.down = new Move(this, 0, -Environment.step, "Down");
+		this.up = new Move(this, 0, Environment.step, "Up");
+		this.alphabet = ActionIndex.of(left, right, down, up);
+
+		// the agent moves at most once per decision, whatever the
+		// environment
+		this.contradictions = ContradictionMatrix.empty(alphabet)
+				.withExclusive(left, right, down, up);
+	}
+
+	@Override
+	public String toString() {
+		return id;
+	}
+
+	@Override
+	public List<MobileFly> predictedNeighbors(Environment e, Set<Action> a) {
+		// the same agents whatever the actions, so that the scores of all the
+		// tested actions (including doing nothing) are computed on the same
+		// agents: the ones whose criticality changes if the agent moves by one
+		// step (within the radius of its current or next position), and the
+		// ones whose decision depends on it, which can also move by one step
+		return e.grid.neighborsWithin(this, Environment.radius + 2
+				* Environment.step);
+	}
+
+	@Override
+	public Set<Action> possibleActions(Environment e) {
+		// the agent can move in any direction, as long as it stays in the
+		// area
+		Set<Action> possibleActions = alphabet.emptySet();
+		for (Move move : new Move[] { left, right, down, up }) {
+			if (move.isPossible(e)) {
+				possibleActions.add(move);
+			}
+		}
+		return possibleActions;
+	}
+
+	@Override
+	public Set<Action> contradictoryActions(Environment env, Set<Action> actions) {
+		// the moves are mutually exclusive. If one is selected the others
+		// must be excluded
+		return contradictions.contradictions(actions);
+	}
+
+	@Override
+	public ContradictionMatrix<Action> contradictionMatrix() {
+		return contradictions;
+	}
+
+	@Override
+	public double criticalityAsDouble(Environment env) {
+		// the criticality is given by the closest other agent: it is 0 if it
+		// is out of the radius, and 1 if both agents are at the same place
+
+		final double x = env.grid.x(this);
+		final double y = env.grid.y(this);
+
+		double minDist = Environment.radius;
+		for (MobileFly f : env.grid.neighborsWithin(x, y, Environment.radius)) {
+			if (f != this) {
+				minDist = Math.min(minDist,
+						Math.hypot(x - env.grid.x(f), y - env.grid.y(f)));
+			}
+		}
+
+		// convert to criticality
+		return (Environment.radius - minDist) / Environment.radius;
+	}
+
+	@Override
+	public double predictedCriticalityAsDouble(Environment env,
+			Set<Action> actions, DoubleFirefly<Environment, Action, MobileFly> agent) {
+		// as in the simplefly example, the prediction directly calls the
+		// criticality function of the agent on the anticipated environment
+
+		assert actions.size() <= 1;
+
+		Environment predictedEnv = env;
+		if (!actions.isEmpty()) {
+			predictedEnv = actions.iterator().next().predict(env);
+		}
+
+		return agent.criticalityAsDouble(predictedEnv);
+	}
+
+}
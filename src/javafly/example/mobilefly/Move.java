@@ -0,0 +1,52 @@
+package javafly.example.mobilefly;
+
+/**
+ * 
+ * An action where the agent moves by one step in a direction
+ * 
+ * @author jorquera
+ *
+ */
+final class Move implements Action {
+	private final MobileFly agent;
+	private final double dx;
+	private final double dy;
+	private final String name;
+
+	public Move(MobileFly agent, double dx, double dy, String name) {
+		super();
+		this.agent = agent;
+		this.dx = dx;
+		this.dy = dy;
+		this.name = name;
+	}
+
+	/**
+	 * @param t
+	 *            an environment
+	 * @return true if the agent stays in the area after the move
+	 */
+	boolean isPossible(Environment t) {
+		double x = t.grid.x(agent) + dx;
+		double y = t.grid.y(agent) + dy;
+		return x >= 0 && x <= Environment.side && y >= 0
+				&& y <= Environment.side;
+	}
+
+	@Override
+	public Environment apply(Environment t) {
+		return t.withPosition(agent, t.grid.x(agent) + dx, t.grid.y(agent)
+				+ dy);
+	}
+
+	@Override
+	public Environment predict(Environment t) {
+		return t.predict(agent, t.grid.x(agent) + dx, t.grid.y(agent) + dy);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
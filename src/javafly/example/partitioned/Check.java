@@ -0,0 +1,113 @@
+package javafly.example.partitioned;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import javafly.CriticalityIndex;
+import javafly.FireflyRuntime;
+import javafly.example.simplefly.Action;
+import javafly.example.simplefly.Environment;
+import javafly.example.simplefly.SimpleFly;
+
+/**
+ * <p>
+ * Runs several populations across several local processes (see
+ * {@link Main}), and checks that each run completes: all the workers must
+ * stop and exit normally, and the values of all the agents must be collected.
+ * </p>
+ *
+ * <p>
+ * For each run, the criticalities computed from the collected values must
+ * also be the ones reported by the workers after the last round, which is
+ * only the case if the halos were up to date. A run with a single partition
+ * must give the same values as the same population run in this process.
+ * </p>
+ *
+ * <p>
+ * The process exits with status 1 if a check fails.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class Check {
+
+	/**
+	 * the checked runs: partitions topology size [degree [seed]]
+	 */
+	private static final String[][] runs = { { "1", "CHAIN", "50" },
+			{ "2", "CHAIN", "200" }, { "3", "CHAIN", "200" },
+			{ "4", "LATTICE_2D", "400" }, { "3", "LATTICE_3D", "343" } };
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+		boolean failed = false;
+		for (String[] config : runs) {
+			int partitions = Integer.parseInt(config[0]);
+			String[] population = Arrays.copyOfRange(config, 1, config.length);
+
+			String error = check(partitions, population, discard);
+			System.out.println((error == null ? "ok     " : "FAILED ")
+					+ String.join(" ", config)
+					+ (error == null ? "" : ": " + error));
+			failed |= error != null;
+		}
+
+		if (failed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return the reason why the run failed, or null
+	 */
+	private static String check(int partitions, String[] population,
+			PrintStream out) throws InterruptedException {
+		Main.Run run;
+		try {
+			run = Main.run(partitions, population, out);
+		} catch (IOException e) {
+			return e.toString();
+		}
+
+		CriticalityIndex<Environment, Double, SimpleFly> index = run.index();
+		if (index.maxCriticality() != run.maxCriticality) {
+			return "max criticality " + index.maxCriticality()
+					+ " instead of " + run.maxCriticality
+					+ " reported by the workers";
+		}
+
+		if (partitions == 1) {
+			Environment expected = sequential(population);
+			for (String id : expected.refs.keySet()) {
+				if (expected.value(id) != run.env.value(id)) {
+					return "the value of " + id
+							+ " differs from the one of a sequential run";
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the final environment of the population run in this process
+	 */
+	private static Environment sequential(String[] population) {
+		Environment env = Main.generate(population);
+		FireflyRuntime<Environment, Action, Double, SimpleFly> runtime = new FireflyRuntime<>(
+				env.refs.values(), env);
+		CriticalityIndex<Environment, Double, SimpleFly> index = new CriticalityIndex<>(
+				runtime.agents(), env, 0.0);
+		runtime.setIndex(index);
+
+		while (!index.allZero() && !runtime.isQuiescent()) {
+			runtime.round();
+		}
+		return runtime.env();
+	}
+
+}
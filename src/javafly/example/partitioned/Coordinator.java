@@ -0,0 +1,401 @@
+package javafly.example.partitioned;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import javafly.example.simplefly.Environment;
+
+/**
+ * <p>
+ * Synchronizes the workers running the partitions of a population, and
+ * routes the values of their boundary agents.
+ * </p>
+ *
+ * <p>
+ * After each round, each worker sends the values of its boundary agents
+ * modified during the round. The coordinator forwards each value to the
+ * workers whose halo contains the agent, and tells them whether to continue.
+ * All the connections are handled by a single thread with a selector, so a
+ * round costs one message from and to each worker, whatever the number of
+ * partitions.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class Coordinator implements Closeable {
+
+	private final Environment env;
+
+	private final Partitioning partitioning;
+
+	private final ServerSocketChannel server;
+
+	private final Selector selector;
+
+	/**
+	 * the connections of the workers, by partition
+	 */
+	private final Connection[] workers;
+
+	private int rounds = 0;
+
+	/**
+	 * statistics of the last round
+	 */
+	private int acting;
+	private int scheduled;
+	private int exchanged;
+	private double maxCriticality;
+
+	/**
+	 * Opens a server socket on an ephemeral port of the loopback interface.
+	 *
+	 * @param env
+	 *            the initial environment of the population
+	 * @param partitioning
+	 *            the partitioning of the population
+	 * @throws IOException
+	 *             if the server socket cannot be opened
+	 */
+	public Coordinator(Environment env, Partitioning partitioning)
+			throws IOException {
+		this.env = env;
+		this.partitioning = partitioning;
+		this.workers = new Connection[partitioning.partitions()];
+
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * @return the port on which the workers must connect
+	 */
+	public int port() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * @return the number of rounds executed so far
+	 */
+	public int rounds() {
+		return rounds;
+	}
+
+	/**
+	 * @return the number of agents which acted during the last round
+	 */
+	public int acting() {
+		return acting;
+	}
+
+	/**
+	 * @return the number of agents scheduled after the last round
+	 */
+	public int scheduled() {
+		return scheduled;
+	}
+
+	/**
+	 * @return the number of values forwarded after the last round
+	 */
+	public int exchanged() {
+		return exchanged;
+	}
+
+	/**
+	 * @return the maximal criticality of the agents after the last round
+	 */
+	public double maxCriticality() {
+		return maxCriticality;
+	}
+
+	/**
+	 * Waits until all the workers are connected.
+	 *
+	 * @throws IOException
+	 *             if a connection fails
+	 */
+	public void accept() throws IOException {
+		int connected = 0;
+		while (connected < workers.length) {
+			selector.select();
+			for (SelectionKey key : selector.selectedKeys()) {
+				if (key.isAcceptable()) {
+					SocketChannel channel = server.accept();
+					if (channel != null) {
+						channel.configureBlocking(false);
+						channel.register(selector, SelectionKey.OP_READ,
+								new Connection(channel));
+					}
+				} else if (key.isReadable()) {
+					Connection connection = (Connection) key.attachment();
+					ByteBuffer frame = connection.read();
+					if (frame != null) {
+						Wire.expect(frame, Wire.HELLO);
+						int partition = frame.getInt();
+						if (workers[partition] != null) {
+							throw new IOException("partition " + partition
+									+ " connected twice");
+						}
+						workers[partition] = connection;
+						connected++;
+						// the next frame is only read by the next gather
+						key.interestOps(0);
+					}
+				}
+			}
+			selector.selectedKeys().clear();
+		}
+		server.close();
+	}
+
+	/**
+	 * Waits for the end of a round on all the workers, and forwards the
+	 * modified boundary values.
+	 *
+	 * @return true if the workers continue, false if the system has converged
+	 *         or no agent can act anymore, in which case the workers stop
+	 * @throws IOException
+	 *             if the communication with a worker fails
+	 */
+	public boolean round() throws IOException {
+		ByteBuffer[] reports = gather(Wire.ROUND);
+		rounds++;
+
+		acting = 0;
+		scheduled = 0;
+		exchanged = 0;
+		maxCriticality = 0.0;
+
+		// the values forwarded to each partition
+		int[][] routed = new int[workers.length][16];
+		int[] counts = new int[workers.length];
+
+		for (ByteBuffer report : reports) {
+			acting += report.getInt();
+			scheduled += report.getInt();
+			maxCriticality = Math.max(maxCriticality, report.getDouble());
+
+			int count = report.getInt();
+			for (int i = 0; i < count; i++) {
+				int ordinal = report.getInt();
+				int value = report.getInt();
+				for (int subscriber : partitioning.subscribers(ordinal)) {
+					int n = counts[subscriber];
+					if (2 * n + 2 > routed[subscriber].length) {
+						routed[subscriber] = Arrays.copyOf(routed[subscriber],
+								routed[subscriber].length * 2);
+					}
+					routed[subscriber][2 * n] = ordinal;
+					routed[subscriber][2 * n + 1] = value;
+					counts[subscriber]++;
+					exchanged++;
+				}
+			}
+		}
+
+		// the criticalities are only up to date if no halo was modified, and
+		// the agents can only act again if they are scheduled or if their
+		// halo was modified
+		boolean converged = maxCriticality == 0.0 && exchanged == 0;
+		boolean quiescent = scheduled == 0 && exchanged == 0;
+		boolean stop = converged || quiescent;
+
+		ByteBuffer[] replies = new ByteBuffer[workers.length];
+		for (int p = 0; p < workers.length; p++) {
+			if (stop) {
+				replies[p] = Wire.finish(Wire.frame(Wire.STOP, 0));
+				continue;
+			}
+			ByteBuffer reply = Wire.frame(Wire.CONTINUE,
+					Wire.values(counts[p]));
+			reply.putInt(counts[p]);
+			for (int i = 0; i < 2 * counts[p]; i++) {
+				reply.putInt(routed[p][i]);
+			}
+			replies[p] = Wire.finish(reply);
+		}
+		scatter(replies);
+
+		return !stop;
+	}
+
+	/**
+	 * Collects the values of the agents after the workers stopped.
+	 *
+	 * @return the final environment of the population
+	 * @throws IOException
+	 *             if the communication with a worker fails
+	 */
+	public Environment collect() throws IOException {
+		Environment.Batch batch = env.newBatch();
+		for (ByteBuffer frame : gather(Wire.FINAL)) {
+			int count = frame.getInt();
+			for (int i = 0; i < count; i++) {
+				int ordinal = frame.getInt();
+				batch.setValue(partitioning.id(ordinal), frame.getInt());
+			}
+		}
+		return env.apply(batch);
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Connection worker : workers) {
+			if (worker != null) {
+				worker.channel.close();
+			}
+		}
+		server.close();
+		selector.close();
+	}
+
+	/**
+	 * @return a message of the given type from each worker, by partition
+	 */
+	private ByteBuffer[] gather(int type) throws IOException {
+		for (Connection worker : workers) {
+			worker.key().interestOps(SelectionKey.OP_READ);
+		}
+
+		ByteBuffer[] frames = new ByteBuffer[workers.length];
+		int received = 0;
+		while (received < workers.length) {
+			selector.select();
+			for (SelectionKey key : selector.selectedKeys()) {
+				Connection connection = (Connection) key.attachment();
+				ByteBuffer frame = connection.read();
+				if (frame != null) {
+					Wire.expect(frame, type);
+					frames[partition(connection)] = frame;
+					received++;
+					// the worker may close its connection after its frame
+					// (after a stop), or send its next frame before the
+					// reply: it is not read anymore until the next gather
+					key.interestOps(0);
+				}
+			}
+			selector.selectedKeys().clear();
+		}
+		return frames;
+	}
+
+	/**
+	 * Sends a message to each worker, by partition.
+	 */
+	private void scatter(ByteBuffer[] frames) throws IOException {
+		int pending = 0;
+		for (int p = 0; p < workers.length; p++) {
+			workers[p].write(frames[p]);
+			if (frames[p].hasRemaining()) {
+				workers[p].key().interestOps(SelectionKey.OP_WRITE);
+				workers[p].output = frames[p];
+				pending++;
+			}
+		}
+
+		// the sockets whose buffer was full are completed when writable. The
+		// other keys are not registered for reading (see gather), so the
+		// frames already sent by the workers do not wake the selector
+		while (pending > 0) {
+			selector.select();
+			for (SelectionKey key : selector.selectedKeys()) {
+				Connection connection = (Connection) key.attachment();
+				if (key.isWritable() && connection.output != null) {
+					connection.write(connection.output);
+					if (!connection.output.hasRemaining()) {
+						connection.output = null;
+						key.interestOps(0);
+						pending--;
+					}
+				}
+			}
+			selector.selectedKeys().clear();
+		}
+	}
+
+	private int partition(Connection connection) {
+		for (int p = 0; p < workers.length; p++) {
+			if (workers[p] == connection) {
+				return p;
+			}
+		}
+		throw new IllegalStateException("unknown connection");
+	}
+
+	/**
+	 * A non-blocking connection to a worker, which reads the frames
+	 * incrementally.
+	 */
+	private final class Connection {
+
+		private final SocketChannel channel;
+
+		private final ByteBuffer length = ByteBuffer.allocate(4);
+
+		/**
+		 * the frame being read, or null if its length is not read yet
+		 */
+		private ByteBuffer frame;
+
+		/**
+		 * the frame being written, or null
+		 */
+		private ByteBuffer output;
+
+		private Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		private SelectionKey key() {
+			return channel.keyFor(selector);
+		}
+
+		/**
+		 * @return the frame, starting with its type, if it is complete, or
+		 *         null
+		 */
+		private ByteBuffer read() throws IOException {
+			if (frame == null) {
+				if (channel.read(length) < 0) {
+					throw new EOFException("worker disconnected");
+				}
+				if (length.hasRemaining()) {
+					return null;
+				}
+				frame = ByteBuffer.allocate(length.getInt(0));
+			}
+			if (channel.read(frame) < 0) {
+				throw new EOFException("worker disconnected");
+			}
+			if (frame.hasRemaining()) {
+				return null;
+			}
+
+			ByteBuffer complete = frame;
+			complete.flip();
+			frame = null;
+			length.clear();
+			return complete;
+		}
+
+		private void write(ByteBuffer buffer) throws IOException {
+			channel.write(buffer);
+		}
+
+	}
+
+}
@@ -0,0 +1,198 @@
+package javafly.example.partitioned;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javafly.CriticalityIndex;
+import javafly.example.simplefly.Environment;
+import javafly.example.simplefly.Generator;
+import javafly.example.simplefly.SimpleFly;
+
+/**
+ * <p>
+ * Runs a generated population of SimpleFly agents (see {@link Generator})
+ * across several local processes.
+ * </p>
+ *
+ * <p>
+ * The population is partitioned by its neighbor graph (see
+ * {@link Partitioning}), and each partition is run by a {@link Worker} in its
+ * own JVM, started by this process with the same class path. This process is
+ * the {@link Coordinator}: the workers connect to it on the loopback
+ * interface, and it forwards the modified boundary values after each round.
+ * At the end, it collects the values of all the agents and checks the
+ * criticalities of the whole population.
+ * </p>
+ *
+ * <p>
+ * The arguments are: partitions topology size [degree [seed]], for instance
+ * "4 LATTICE_2D 10000".
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class Main {
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		if (args.length < 3) {
+			System.err.println("usage: partitions topology size [degree [seed]]");
+			System.exit(1);
+		}
+
+		int partitions = Integer.parseInt(args[0]);
+		String[] population = Arrays.copyOfRange(args, 1, args.length);
+
+		Run run = run(partitions, population, System.out);
+
+		// the criticalities of the whole population, computed from the
+		// collected values
+		CriticalityIndex<Environment, Double, SimpleFly> index = run.index();
+		System.out.println("max criticality: " + index.maxCriticality());
+		System.out.println(index.allZero() ? "--- SUCCESS !" : "--- STUCK !");
+	}
+
+	/**
+	 * The result of a distributed run.
+	 */
+	static final class Run {
+
+		/**
+		 * the values of all the agents, collected at the end of the run
+		 */
+		final Environment env;
+
+		/**
+		 * the number of rounds executed
+		 */
+		final int rounds;
+
+		/**
+		 * the maximal criticality reported by the workers after the last
+		 * round
+		 */
+		final double maxCriticality;
+
+		private Run(Environment env, int rounds, double maxCriticality) {
+			this.env = env;
+			this.rounds = rounds;
+			this.maxCriticality = maxCriticality;
+		}
+
+		/**
+		 * @return the criticalities of the whole population, computed from
+		 *         the collected values
+		 */
+		CriticalityIndex<Environment, Double, SimpleFly> index() {
+			return new CriticalityIndex<>(env.refs.values(), env, 0.0);
+		}
+
+	}
+
+	/**
+	 * Runs a population across several local processes, until no agent can
+	 * act anymore.
+	 *
+	 * @param partitions
+	 *            the number of partitions (and of worker processes)
+	 * @param population
+	 *            topology size [degree [seed]]
+	 * @param out
+	 *            where the progress of the rounds is displayed
+	 * @return the result of the run
+	 * @throws IOException
+	 *             if the communication with a worker fails, or if a worker
+	 *             exits with an error
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the end of the workers
+	 */
+	static Run run(int partitions, String[] population, PrintStream out)
+			throws IOException, InterruptedException {
+		Environment env = generate(population);
+		Partitioning partitioning = new Partitioning(env, partitions);
+
+		List<Process> workers = new ArrayList<>();
+		Run run;
+
+		try (Coordinator coordinator = new Coordinator(env, partitioning)) {
+			for (int p = 0; p < partitions; p++) {
+				workers.add(start(coordinator.port(), p, partitions, population));
+			}
+			coordinator.accept();
+
+			out.println("--- " + partitions + " PARTITIONS, "
+					+ env.refs.size() + " agents");
+
+			boolean running = true;
+			while (running) {
+				running = coordinator.round();
+
+				out.println("### TURN " + coordinator.rounds());
+				out.println(coordinator.acting() + " acting, "
+						+ coordinator.exchanged() + " values exchanged, "
+						+ "max criticality: " + coordinator.maxCriticality()
+						+ "\n");
+			}
+
+			run = new Run(coordinator.collect(), coordinator.rounds(),
+					coordinator.maxCriticality());
+		} finally {
+			// the workers exit when their connection is closed
+			for (Process worker : workers) {
+				worker.waitFor();
+			}
+		}
+
+		for (Process worker : workers) {
+			if (worker.exitValue() != 0) {
+				throw new IOException("worker exited with status "
+						+ worker.exitValue());
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * @param args
+	 *            topology size [degree [seed]]
+	 * @return the initial environment of a generated population
+	 */
+	static Environment generate(String[] args) {
+		Generator generator = new Generator(Generator.Topology.valueOf(args[0]
+				.toUpperCase()), Integer.parseInt(args[1]));
+		if (args.length > 2) {
+			generator = generator.withDegree(Integer.parseInt(args[2]));
+		}
+		if (args.length > 3) {
+			generator = generator.withSeed(Long.parseLong(args[3]));
+		}
+		return generator.generate();
+	}
+
+	/**
+	 * Starts the JVM of a worker, with the class path of this JVM.
+	 */
+	private static Process start(int port, int partition, int partitions,
+			String[] population) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Worker.class.getName());
+		command.add(InetAddress.getLoopbackAddress().getHostAddress());
+		command.add(Integer.toString(port));
+		command.add(Integer.toString(partition));
+		command.add(Integer.toString(partitions));
+		command.addAll(Arrays.asList(population));
+
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+
+}
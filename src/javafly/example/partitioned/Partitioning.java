@@ -0,0 +1,267 @@
+package javafly.example.partitioned;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javafly.example.simplefly.Environment;
+import javafly.example.simplefly.SimpleFly;
+
+/**
+ * <p>
+ * A partition of a population of SimpleFly agents, computed from their
+ * neighbor graph.
+ * </p>
+ *
+ * <p>
+ * The agents are ordered by a breadth-first traversal of the graph, then this
+ * order is cut into partitions of equal sizes, so that the agents of a
+ * partition are close to each other and only a small part of the links cross
+ * the partitions. The partitioning is deterministic: each process computes
+ * the same partitioning from the same population.
+ * </p>
+ *
+ * <p>
+ * An agent decides from the values of the agents at most two links away from
+ * it (its neighbors, and the neighbors of its neighbors whose criticalities it
+ * predicts). The halo of a partition is thus made of the agents of the other
+ * partitions at most two links away from its own agents, and the boundary
+ * agents of a partition are the ones in the halo of another partition.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class Partitioning {
+
+	/**
+	 * the agents, by ordinal (their order in the references of the
+	 * environment)
+	 */
+	private final List<SimpleFly> agents;
+
+	/**
+	 * the ids of the agents, by ordinal
+	 */
+	private final List<String> ids;
+
+	private final Map<SimpleFly, Integer> ordinals;
+
+	private final int partitions;
+
+	/**
+	 * the partition of each agent, by ordinal
+	 */
+	private final int[] owners;
+
+	/**
+	 * the other partitions whose halo contains each agent, by ordinal
+	 */
+	private final int[][] subscribers;
+
+	/**
+	 * @param env
+	 *            the environment of the population
+	 * @param partitions
+	 *            the number of partitions
+	 */
+	public Partitioning(Environment env, int partitions) {
+		if (partitions < 1) {
+			throw new IllegalArgumentException("invalid number of partitions: "
+					+ partitions);
+		}
+
+		this.agents = new ArrayList<>(env.refs.values());
+		this.ids = new ArrayList<>(env.refs.keySet());
+		this.partitions = partitions;
+		this.ordinals = new HashMap<>((int) (agents.size() / 0.75f) + 1);
+		for (int i = 0; i < agents.size(); i++) {
+			ordinals.put(agents.get(i), i);
+		}
+
+		int[][] links = links(env);
+		this.owners = owners(links);
+		this.subscribers = subscribers(links);
+	}
+
+	/**
+	 * @return the number of partitions
+	 */
+	public int partitions() {
+		return partitions;
+	}
+
+	/**
+	 * @return the number of agents
+	 */
+	public int size() {
+		return agents.size();
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of an agent
+	 * @return the agent
+	 */
+	public SimpleFly agent(int ordinal) {
+		return agents.get(ordinal);
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of an agent
+	 * @return the id of the agent
+	 */
+	public String id(int ordinal) {
+		return ids.get(ordinal);
+	}
+
+	/**
+	 * @param agent
+	 *            an agent of the population
+	 * @return the ordinal of the agent
+	 */
+	public int ordinal(SimpleFly agent) {
+		return ordinals.get(agent);
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of an agent
+	 * @return the partition of the agent
+	 */
+	public int owner(int ordinal) {
+		return owners[ordinal];
+	}
+
+	/**
+	 * @param partition
+	 *            a partition
+	 * @return the agents of the partition, by increasing ordinal
+	 */
+	public List<SimpleFly> local(int partition) {
+		List<SimpleFly> local = new ArrayList<>();
+		for (int i = 0; i < owners.length; i++) {
+			if (owners[i] == partition) {
+				local.add(agents.get(i));
+			}
+		}
+		return local;
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of an agent
+	 * @return true if the agent belongs to the halo of another partition
+	 */
+	public boolean isBoundary(int ordinal) {
+		return subscribers[ordinal].length > 0;
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of an agent
+	 * @return the other partitions whose halo contains the agent, which must
+	 *         receive its new values
+	 */
+	public int[] subscribers(int ordinal) {
+		return subscribers[ordinal];
+	}
+
+	/**
+	 * @param partition
+	 *            a partition
+	 * @return the ordinals of the agents of the halo of the partition
+	 */
+	public BitSet halo(int partition) {
+		BitSet halo = new BitSet(owners.length);
+		for (int i = 0; i < subscribers.length; i++) {
+			for (int subscriber : subscribers[i]) {
+				if (subscriber == partition) {
+					halo.set(i);
+				}
+			}
+		}
+		return halo;
+	}
+
+	/**
+	 * @return the ordinals of the neighbors of each agent, itself excluded
+	 */
+	private int[][] links(Environment env) {
+		int[][] links = new int[agents.size()][];
+		for (int i = 0; i < links.length; i++) {
+			List<SimpleFly> neighbors = agents.get(i).predictedNeighbors(env,
+					Collections.emptySet());
+			int[] ordinals = new int[neighbors.size()];
+			int n = 0;
+			for (SimpleFly neighbor : neighbors) {
+				int j = this.ordinals.get(neighbor);
+				if (j != i) {
+					ordinals[n++] = j;
+				}
+			}
+			links[i] = Arrays.copyOf(ordinals, n);
+		}
+		return links;
+	}
+
+	/**
+	 * Orders the agents by a breadth-first traversal of each connected
+	 * component, and cuts this order into partitions of equal sizes.
+	 */
+	private int[] owners(int[][] links) {
+		int n = links.length;
+		int[] owners = new int[n];
+		int chunk = Math.max(1, (n + partitions - 1) / partitions);
+
+		BitSet visited = new BitSet(n);
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		int position = 0;
+
+		for (int start = visited.nextClearBit(0); start < n; start = visited
+				.nextClearBit(start + 1)) {
+			visited.set(start);
+			queue.add(start);
+			while (!queue.isEmpty()) {
+				int i = queue.poll();
+				owners[i] = Math.min(position++ / chunk, partitions - 1);
+				for (int j : links[i]) {
+					if (!visited.get(j)) {
+						visited.set(j);
+						queue.add(j);
+					}
+				}
+			}
+		}
+		return owners;
+	}
+
+	/**
+	 * @return the other partitions owning an agent at most two links away
+	 *         from each agent
+	 */
+	private int[][] subscribers(int[][] links) {
+		int[][] subscribers = new int[links.length][];
+		BitSet found = new BitSet(partitions);
+
+		for (int i = 0; i < links.length; i++) {
+			found.clear();
+			for (int j : links[i]) {
+				found.set(owners[j]);
+				for (int k : links[j]) {
+					found.set(owners[k]);
+				}
+			}
+			found.clear(owners[i]);
+			subscribers[i] = found.stream().toArray();
+		}
+		return subscribers;
+	}
+
+}
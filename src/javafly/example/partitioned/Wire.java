@@ -0,0 +1,151 @@
+package javafly.example.partitioned;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * <p>
+ * The messages exchanged between the coordinator and the workers. Each message
+ * is a frame made of its length (an int), its type (an int) and its content.
+ * </p>
+ *
+ * <p>
+ * The values of the agents are sent as lists of (ordinal, value) pairs, the
+ * ordinals being the ones of the {@link Partitioning}, which is computed by
+ * each process from the same population.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+final class Wire {
+
+	/**
+	 * worker to coordinator: partition
+	 */
+	static final int HELLO = 1;
+
+	/**
+	 * worker to coordinator, after each round: acting agents, scheduled
+	 * agents, max criticality (a double), modified boundary values
+	 */
+	static final int ROUND = 2;
+
+	/**
+	 * worker to coordinator, after a stop: values of the local agents
+	 */
+	static final int FINAL = 3;
+
+	/**
+	 * coordinator to worker, after each round: modified halo values
+	 */
+	static final int CONTINUE = 4;
+
+	/**
+	 * coordinator to worker: no agent can act anymore
+	 */
+	static final int STOP = 5;
+
+	private Wire() {
+	}
+
+	/**
+	 * @param type
+	 *            the type of the message
+	 * @param capacity
+	 *            the maximal size of its content
+	 * @return a buffer where the content of the message can be written
+	 */
+	static ByteBuffer frame(int type, int capacity) {
+		ByteBuffer frame = ByteBuffer.allocate(8 + capacity);
+		frame.putInt(0);
+		frame.putInt(type);
+		return frame;
+	}
+
+	/**
+	 * @param count
+	 *            a number of (ordinal, value) pairs
+	 * @return the size of the pairs and of their count
+	 */
+	static int values(int count) {
+		return 4 + 8 * count;
+	}
+
+	/**
+	 * Writes the length of a message, and prepares its buffer to be sent.
+	 *
+	 * @param frame
+	 *            a buffer created by {@link #frame(int, int)}
+	 * @return the buffer
+	 */
+	static ByteBuffer finish(ByteBuffer frame) {
+		frame.putInt(0, frame.position() - 4);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Sends a message on a blocking channel.
+	 *
+	 * @param channel
+	 *            the channel
+	 * @param frame
+	 *            the message, prepared by {@link #finish(ByteBuffer)}
+	 * @throws IOException
+	 *             if the message cannot be sent
+	 */
+	static void send(SocketChannel channel, ByteBuffer frame)
+			throws IOException {
+		while (frame.hasRemaining()) {
+			channel.write(frame);
+		}
+	}
+
+	/**
+	 * Receives a message on a blocking channel.
+	 *
+	 * @param channel
+	 *            the channel
+	 * @return the message, starting with its type
+	 * @throws IOException
+	 *             if the message cannot be received, or if the channel was
+	 *             closed
+	 */
+	static ByteBuffer receive(SocketChannel channel) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		readFully(channel, length);
+		ByteBuffer frame = ByteBuffer.allocate(length.getInt(0));
+		readFully(channel, frame);
+		frame.flip();
+		return frame;
+	}
+
+	private static void readFully(SocketChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("connection closed");
+			}
+		}
+	}
+
+	/**
+	 * @param frame
+	 *            a received message
+	 * @param expected
+	 *            the expected type of the message
+	 * @throws IOException
+	 *             if the message has another type
+	 */
+	static void expect(ByteBuffer frame, int expected) throws IOException {
+		int type = frame.getInt();
+		if (type != expected) {
+			throw new IOException("unexpected message: " + type
+					+ " instead of " + expected);
+		}
+	}
+
+}
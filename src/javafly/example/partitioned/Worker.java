@@ -0,0 +1,241 @@
+package javafly.example.partitioned;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import javafly.CriticalityIndex;
+import javafly.FireflyRuntime;
+import javafly.example.simplefly.Action;
+import javafly.example.simplefly.Environment;
+import javafly.example.simplefly.SimpleFly;
+
+/**
+ * <p>
+ * Runs the agents of a partition in rounds, and keeps the ghost copies of the
+ * agents of its halo up to date with the values sent by the coordinator.
+ * </p>
+ *
+ * <p>
+ * The interior agents of the partition only depend on the values of its own
+ * agents, and decide at each round. The boundary agents only decide at the
+ * rounds of the partition (one round out of the number of partitions): the
+ * boundary agents of two partitions never decide in the same round, so each
+ * agent decides with up to date values, and the distributed run has the same
+ * result as a sequential run of the agents in some order.
+ * </p>
+ *
+ * <p>
+ * Each worker regenerates the whole population from its configuration, and
+ * only reads the values of its agents and of its halo. The arguments of the
+ * main method are: host port partition partitions topology size [degree
+ * [seed]].
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class Worker {
+
+	private final Partitioning partitioning;
+
+	private final int partition;
+
+	private final FireflyRuntime<Environment, Action, Double, SimpleFly> runtime;
+
+	private final CriticalityIndex<Environment, Double, SimpleFly> index;
+
+	/**
+	 * the ordinals of the boundary agents of the partition
+	 */
+	private final int[] boundary;
+
+	/**
+	 * the values of the boundary agents last sent to the coordinator, by
+	 * position in the boundary agents
+	 */
+	private final int[] sent;
+
+	/**
+	 * @param env
+	 *            the initial environment of the population
+	 * @param partitioning
+	 *            the partitioning of the population
+	 * @param partition
+	 *            the partition run by the worker
+	 */
+	public Worker(Environment env, Partitioning partitioning, int partition) {
+		this.partitioning = partitioning;
+		this.partition = partition;
+
+		List<SimpleFly> local = partitioning.local(partition);
+		this.runtime = new FireflyRuntime<>(local, env);
+		this.index = new CriticalityIndex<>(runtime.agents(), env, 0.0);
+		runtime.setIndex(index);
+
+		this.boundary = local.stream().mapToInt(partitioning::ordinal)
+				.filter(partitioning::isBoundary).toArray();
+		this.sent = new int[boundary.length];
+		for (int i = 0; i < boundary.length; i++) {
+			sent[i] = env.value(partitioning.id(boundary[i]));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 6) {
+			System.err.println("usage: host port partition partitions "
+					+ "topology size [degree [seed]]");
+			System.exit(1);
+		}
+
+		int partition = Integer.parseInt(args[2]);
+		Environment env = Main.generate(Arrays.copyOfRange(args, 4,
+				args.length));
+		Partitioning partitioning = new Partitioning(env,
+				Integer.parseInt(args[3]));
+
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+				args[0], Integer.parseInt(args[1])))) {
+			new Worker(env, partitioning, partition).run(channel);
+		}
+	}
+
+	/**
+	 * Runs the partition until the coordinator stops it.
+	 *
+	 * @param channel
+	 *            the blocking connection to the coordinator
+	 * @throws IOException
+	 *             if the communication with the coordinator fails
+	 */
+	public void run(SocketChannel channel) throws IOException {
+		ByteBuffer hello = Wire.frame(Wire.HELLO, 4);
+		hello.putInt(partition);
+		Wire.send(channel, Wire.finish(hello));
+
+		while (true) {
+			boolean turn = runtime.rounds() % partitioning.partitions() == partition;
+			int acting = runtime.round(agent -> turn
+					|| !partitioning.isBoundary(partitioning.ordinal(agent)));
+
+			Wire.send(channel, report(acting));
+
+			ByteBuffer reply = Wire.receive(channel);
+			int type = reply.getInt();
+			if (type == Wire.STOP) {
+				Wire.send(channel, values());
+				return;
+			}
+			if (type != Wire.CONTINUE) {
+				throw new IOException("unexpected message: " + type);
+			}
+			updateHalo(reply);
+		}
+	}
+
+	/**
+	 * @return the report of a round, with the modified boundary values
+	 */
+	private ByteBuffer report(int acting) {
+		Environment env = runtime.env();
+
+		int[] modified = new int[2 * boundary.length];
+		int count = 0;
+		for (int i = 0; i < boundary.length; i++) {
+			int value = env.value(partitioning.id(boundary[i]));
+			if (value != sent[i]) {
+				sent[i] = value;
+				modified[2 * count] = boundary[i];
+				modified[2 * count + 1] = value;
+				count++;
+			}
+		}
+
+		ByteBuffer frame = Wire.frame(Wire.ROUND, 16 + Wire.values(count));
+		frame.putInt(acting);
+		frame.putInt(runtime.scheduled());
+		frame.putDouble(index.maxCriticality());
+		frame.putInt(count);
+		for (int i = 0; i < 2 * count; i++) {
+			frame.putInt(modified[i]);
+		}
+		return Wire.finish(frame);
+	}
+
+	/**
+	 * @return the values of the agents of the partition
+	 */
+	private ByteBuffer values() {
+		Environment env = runtime.env();
+		List<SimpleFly> agents = runtime.agents();
+
+		ByteBuffer frame = Wire.frame(Wire.FINAL, Wire.values(agents.size()));
+		frame.putInt(agents.size());
+		for (SimpleFly agent : agents) {
+			int ordinal = partitioning.ordinal(agent);
+			frame.putInt(ordinal);
+			frame.putInt(env.value(partitioning.id(ordinal)));
+		}
+		return Wire.finish(frame);
+	}
+
+	/**
+	 * Replaces the values of the ghost agents, then schedules the local agents
+	 * whose decision may change (the neighbors of the modified agents and
+	 * their own neighbors), and updates the criticalities of their neighbors.
+	 */
+	private void updateHalo(ByteBuffer reply) {
+		int count = reply.getInt();
+		if (count == 0) {
+			return;
+		}
+
+		Environment env = runtime.env();
+		Environment.Batch batch = env.newBatch();
+		List<SimpleFly> ghosts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int ordinal = reply.getInt();
+			batch.setValue(partitioning.id(ordinal), reply.getInt());
+			ghosts.add(partitioning.agent(ordinal));
+		}
+		env = env.apply(batch);
+		runtime.setEnv(env);
+
+		BitSet touched = new BitSet(partitioning.size());
+		BitSet perturbed = new BitSet(partitioning.size());
+		for (SimpleFly ghost : ghosts) {
+			for (SimpleFly neighbor : ghost.predictedNeighbors(env,
+					Collections.emptySet())) {
+				touched.set(partitioning.ordinal(neighbor));
+				for (SimpleFly dependent : neighbor.predictedNeighbors(env,
+						Collections.emptySet())) {
+					perturbed.set(partitioning.ordinal(dependent));
+				}
+			}
+		}
+
+		runtime.schedule(local(perturbed));
+		index.update(local(touched), env);
+	}
+
+	/**
+	 * @return the agents of the partition among the given ordinals
+	 */
+	private List<SimpleFly> local(BitSet ordinals) {
+		List<SimpleFly> local = new ArrayList<>();
+		for (int i = ordinals.nextSetBit(0); i >= 0; i = ordinals
+				.nextSetBit(i + 1)) {
+			if (partitioning.owner(i) == partition) {
+				local.add(partitioning.agent(i));
+			}
+		}
+		return local;
+	}
+
+}
@@ -1,18 +1,30 @@
 package javafly.example.simplefly;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.function.Function;
+import javafly.BatchAction;
 
 /**
  * 
- * The common interface for the possible actions of the agents. Only used for
- * type consistency
+ * The common interface for the possible actions of the agents.
  * 
  * @author jorquera
  *
  */
-public interface Action extends Function<Environment, Environment> {
+public interface Action extends
+		BatchAction<Environment, Environment.Batch> {
+
+	/**
+	 * Returns the predicted environment if this action is applied, which only
+	 * records the values modified by the action on top of the given
+	 * environment. The default implementation applies the action.
+	 * 
+	 * @param t
+	 *            the current (or predicted) environment
+	 * @return the predicted environment
+	 */
+	default Environment predict(Environment t) {
+		return apply(t);
+	}
+
 }
 
 /**
@@ -32,12 +44,21 @@ final class Increase implements Action {
 
 	@Override
 	public Environment apply(Environment t) {
-		Map<String, Integer> res = new HashMap<>(t.values);
-
 		// increase the value of the agent by 1 (if possible)
-		res.put(agentId,
-				Math.min(t.values.get(agentId) + 1, Environment.maxValue));
-		return new Environment(t.refs, res);
+		return t.withValue(agentId,
+				Math.min(t.value(agentId) + 1, Environment.maxValue));
+	}
+
+	@Override
+	public void applyTo(Environment.Batch batch) {
+		batch.setValue(agentId,
+				Math.min(batch.value(agentId) + 1, Environment.maxValue));
+	}
+
+	@Override
+	public Environment predict(Environment t) {
+		return t.predict(agentId,
+				Math.min(t.value(agentId) + 1, Environment.maxValue));
 	}
 
 	@Override
@@ -64,12 +85,21 @@ final class Decrease implements Action {
 
 	@Override
 	public Environment apply(Environment t) {
-		Map<String, Integer> res = new HashMap<>(t.values);
-
 		// decrease the value of the agent by 1 (if possible)
-		res.put(agentId,
-				Math.max(t.values.get(agentId) - 1, Environment.minValue));
-		return new Environment(t.refs, res);
+		return t.withValue(agentId,
+				Math.max(t.value(agentId) - 1, Environment.minValue));
+	}
+
+	@Override
+	public void applyTo(Environment.Batch batch) {
+		batch.setValue(agentId,
+				Math.max(batch.value(agentId) - 1, Environment.minValue));
+	}
+
+	@Override
+	public Environment predict(Environment t) {
+		return t.predict(agentId,
+				Math.max(t.value(agentId) - 1, Environment.minValue));
 	}
 
 	@Override
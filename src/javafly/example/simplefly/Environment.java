@@ -1,6 +1,12 @@
 package javafly.example.simplefly;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.stream.Collectors;
+
+import javafly.BatchEnvironment;
+import javafly.util.NeighborGraph;
+import javafly.util.PersistentMap;
 
 /**
  * The Environment object contains the mutable state of the entire system.
@@ -8,8 +14,24 @@ import java.util.Map;
  * The environment in this case is composed of two maps containing respectively
  * the references to the agents and to their current value.
  * 
+ * The values are stored in a persistent map, so that an action modifying the
+ * value of one agent shares most of the structure of the previous environment
+ * instead of copying it. The references are never modified and are shared by
+ * all the environments, along with the neighbor graph of the agents.
+ * 
+ * In order to evaluate hypothetical actions, an environment can also be a
+ * predicted environment: the values modified by the tentative actions are
+ * recorded in a small overlay on top of the values of the current environment,
+ * and the reads are resolved through it (see {@link #value(String)}). The
+ * cost of a prediction is thus proportional to the number of modified values,
+ * not to the size of the environment.
+ * 
+ * Several actions can also be applied at once through a {@link Batch}, whose
+ * modified values are merged in the persistent map in a single pass.
+ * 
  */
-public final class Environment {
+public final class Environment implements
+		BatchEnvironment<Environment, Environment.Batch> {
 
 	/*
 	 * Some global constants
@@ -23,13 +45,178 @@ public final class Environment {
 	public final Map<String, SimpleFly> refs;
 
 	/**
-	 * maps the id of the agents to their current value
+	 * the static neighbor graph of the agents (the neighbors of each agent
+	 * include itself)
+	 */
+	public final NeighborGraph<SimpleFly> graph;
+
+	/**
+	 * maps the id of the agents to their current value (without the predicted
+	 * values, which are only read through {@link #value(String)})
+	 */
+	private final PersistentMap<String, Integer> values;
+
+	/**
+	 * the ids of the agents whose value is predicted (empty if this is not a
+	 * predicted environment)
+	 */
+	private final String[] overlayIds;
+
+	/**
+	 * the predicted values, in the order of overlayIds
 	 */
-	public final Map<String, Integer> values;
+	private final int[] overlayValues;
 
 	public Environment(Map<String, SimpleFly> refs, Map<String, Integer> values) {
+		this(refs, NeighborGraph.of(refs.values(), agent -> agent.neighborIds()
+				.stream().map(refs::get).collect(Collectors.toList())),
+				PersistentMap.copyOf(values), new String[0], new int[0]);
+	}
+
+	private Environment(Map<String, SimpleFly> refs,
+			NeighborGraph<SimpleFly> graph,
+			PersistentMap<String, Integer> values, String[] overlayIds,
+			int[] overlayValues) {
 		this.refs = refs;
+		this.graph = graph;
 		this.values = values;
+		this.overlayIds = overlayIds;
+		this.overlayValues = overlayValues;
+	}
+
+	/**
+	 * Returns the value of an agent, including the predicted values if this is
+	 * a predicted environment.
+	 * 
+	 * @param id
+	 *            the id of the agent
+	 * @return the value of the agent
+	 */
+	public int value(String id) {
+		// the overlay only contains the few values modified by the tentative
+		// actions, so a linear search is enough
+		for (int i = 0; i < overlayIds.length; i++) {
+			if (overlayIds[i].equals(id)) {
+				return overlayValues[i];
+			}
+		}
+		return values.get(id);
+	}
+
+	/**
+	 * Returns a new environment where the value of the given agent is
+	 * replaced.
+	 * 
+	 * @param id
+	 *            the id of the agent
+	 * @param value
+	 *            the new value of the agent
+	 * @return the new environment
+	 */
+	public Environment withValue(String id, int value) {
+		// the predicted values (if any) become actual values
+		PersistentMap<String, Integer> newValues = values;
+		for (int i = 0; i < overlayIds.length; i++) {
+			newValues = newValues.plus(overlayIds[i], overlayValues[i]);
+		}
+		return new Environment(refs, graph, newValues.plus(id, value),
+				new String[0], new int[0]);
+	}
+
+	@Override
+	public Batch newBatch() {
+		return new Batch(this);
+	}
+
+	@Override
+	public Environment apply(Batch batch) {
+		if (batch.env != this) {
+			throw new IllegalArgumentException("batch of another environment");
+		}
+
+		// the predicted values (if any) become actual values, along with the
+		// values of the batch
+		Map<String, Integer> modified = new LinkedHashMap<>();
+		for (int i = 0; i < overlayIds.length; i++) {
+			modified.put(overlayIds[i], overlayValues[i]);
+		}
+		modified.putAll(batch.values);
+
+		return new Environment(refs, graph, values.plusAll(modified),
+				new String[0], new int[0]);
+	}
+
+	/**
+	 * Returns a predicted environment where the value of the given agent is
+	 * replaced. The values of this environment are shared, and only the
+	 * predicted value is recorded.
+	 * 
+	 * @param id
+	 *            the id of the agent
+	 * @param value
+	 *            the predicted value of the agent
+	 * @return the predicted environment
+	 */
+	public Environment predict(String id, int value) {
+		int n = overlayIds.length;
+		for (int i = 0; i < n; i++) {
+			if (overlayIds[i].equals(id)) {
+				int[] newValues = overlayValues.clone();
+				newValues[i] = value;
+				return new Environment(refs, graph, values, overlayIds, newValues);
+			}
+		}
+
+		String[] newIds = new String[n + 1];
+		int[] newValues = new int[n + 1];
+		System.arraycopy(overlayIds, 0, newIds, 0, n);
+		System.arraycopy(overlayValues, 0, newValues, 0, n);
+		newIds[n] = id;
+		newValues[n] = value;
+		return new Environment(refs, graph, values, newIds, newValues);
+	}
+
+	/**
+	 * The values modified by a batch of actions, which are merged in a new
+	 * environment by {@link Environment#apply(Batch)}.
+	 */
+	public static final class Batch {
+
+		/**
+		 * the modified environment
+		 */
+		private final Environment env;
+
+		/**
+		 * the modified values
+		 */
+		private final Map<String, Integer> values = new LinkedHashMap<>();
+
+		private Batch(Environment env) {
+			this.env = env;
+		}
+
+		/**
+		 * @param id
+		 *            the id of an agent
+		 * @return the value of the agent, including the modifications of the
+		 *         batch
+		 */
+		public int value(String id) {
+			Integer value = values.get(id);
+			return value == null ? env.value(id) : value;
+		}
+
+		/**
+		 * @param id
+		 *            the id of an agent
+		 * @param value
+		 *            the new value of the agent
+		 */
+		public void setValue(String id, int value) {
+			values.put(id, value);
+		}
+
 	}
 
 }
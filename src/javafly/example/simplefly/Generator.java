@@ -0,0 +1,342 @@
+package javafly.example.simplefly;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javafly.util.PersistentMap;
+
+/**
+ * <p>
+ * Generates populations of SimpleFly agents of arbitrary size, with a
+ * configurable topology, average degree, distribution of the initial values
+ * and random seed. The same configuration always generates the same
+ * population.
+ * </p>
+ *
+ * <p>
+ * The agents are identified by their index ("0", "1"...), and are iterated in
+ * this order in the references of the generated environment. The agents and
+ * their values are streamed directly into the environment: only the adjacency
+ * lists of the agents (as int arrays) are held during the generation, and the
+ * adjacency list of an agent is released as soon as it is created.
+ * </p>
+ *
+ * @author jorquera
+ *
+ */
+public final class Generator {
+
+	/**
+	 * The possible topologies of the populations. All the neighborhoods are
+	 * symmetric.
+	 */
+	public enum Topology {
+		/**
+		 * each agent is linked to the previous and next ones
+		 */
+		CHAIN,
+		/**
+		 * a chain whose extremities are linked
+		 */
+		RING,
+		/**
+		 * a square grid, where each agent is linked to its 4 closest agents
+		 */
+		LATTICE_2D,
+		/**
+		 * a cubic grid, where each agent is linked to its 6 closest agents
+		 */
+		LATTICE_3D,
+		/**
+		 * an Erdos-Renyi random graph, with the configured average degree
+		 */
+		ERDOS_RENYI,
+		/**
+		 * a Barabasi-Albert scale-free graph: each new agent is linked to
+		 * degree / 2 existing agents, chosen with a probability proportional to
+		 * their degree
+		 */
+		SCALE_FREE
+	}
+
+	/**
+	 * The possible distributions of the initial values of the agents.
+	 */
+	public enum Distribution {
+		/**
+		 * uniform between the minimal and maximal values
+		 */
+		UNIFORM,
+		/**
+		 * normal, centered between the minimal and maximal values (and
+		 * truncated to them)
+		 */
+		NORMAL,
+		/**
+		 * either the minimal or the maximal value
+		 */
+		EXTREMES;
+
+		int next(Random random) {
+			int range = Environment.maxValue - Environment.minValue;
+			switch (this) {
+			case NORMAL:
+				long v = Math.round(Environment.minValue + range / 2.0
+						+ random.nextGaussian() * range / 4.0);
+				return (int) Math.max(Environment.minValue,
+						Math.min(Environment.maxValue, v));
+			case EXTREMES:
+				return random.nextBoolean() ? Environment.minValue
+						: Environment.maxValue;
+			default:
+				return Environment.minValue + random.nextInt(range + 1);
+			}
+		}
+	}
+
+	private final Topology topology;
+	private final int size;
+	private final int degree;
+	private final Distribution values;
+	private final long seed;
+
+	/**
+	 * Creates a generator with an average degree of 4, uniform values and a
+	 * seed equal to 0.
+	 *
+	 * @param topology
+	 *            the topology of the population
+	 * @param size
+	 *            the number of agents
+	 */
+	public Generator(Topology topology, int size) {
+		this(topology, size, 4, Distribution.UNIFORM, 0);
+	}
+
+	private Generator(Topology topology, int size, int degree,
+			Distribution values, long seed) {
+		if (size < 1) {
+			throw new IllegalArgumentException("invalid size: " + size);
+		}
+		if (degree < 1) {
+			throw new IllegalArgumentException("invalid degree: " + degree);
+		}
+		this.topology = topology;
+		this.size = size;
+		this.degree = degree;
+		this.values = values;
+		this.seed = seed;
+	}
+
+	/**
+	 * @param degree
+	 *            the average degree of the agents (only used by the random
+	 *            topologies)
+	 * @return a generator with the given average degree
+	 */
+	public Generator withDegree(int degree) {
+		return new Generator(topology, size, degree, values, seed);
+	}
+
+	/**
+	 * @param values
+	 *            the distribution of the initial values
+	 * @return a generator with the given distribution of the initial values
+	 */
+	public Generator withValues(Distribution values) {
+		return new Generator(topology, size, degree, values, seed);
+	}
+
+	/**
+	 * @param seed
+	 *            the random seed
+	 * @return a generator with the given seed
+	 */
+	public Generator withSeed(long seed) {
+		return new Generator(topology, size, degree, values, seed);
+	}
+
+	/**
+	 * Generates the population.
+	 *
+	 * @return the environment containing the agents and their initial values
+	 */
+	public Environment generate() {
+		Random random = new Random(seed);
+		Adjacency adjacency = links(random);
+
+		Map<String, SimpleFly> refs = new LinkedHashMap<>(
+				(int) (size / 0.75f) + 1);
+		PersistentMap<String, Integer> initialValues = PersistentMap.empty();
+
+		for (int i = 0; i < size; i++) {
+			String id = Integer.toString(i);
+			refs.put(id, new SimpleFly(id, adjacency.ids(i)));
+			adjacency.release(i);
+
+			initialValues = initialValues.plus(id, values.next(random));
+		}
+
+		return new Environment(refs, initialValues);
+	}
+
+	/**
+	 * @return the links between the agents
+	 */
+	private Adjacency links(Random random) {
+		Adjacency adjacency = new Adjacency(size);
+
+		switch (topology) {
+		case CHAIN:
+		case RING:
+			for (int i = 0; i + 1 < size; i++) {
+				adjacency.link(i, i + 1);
+			}
+			if (topology == Topology.RING && size > 2) {
+				adjacency.link(size - 1, 0);
+			}
+			break;
+
+		case LATTICE_2D: {
+			int side = (int) Math.ceil(Math.sqrt(size));
+			for (int i = 0; i < size; i++) {
+				if (i % side + 1 < side && i + 1 < size) {
+					adjacency.link(i, i + 1);
+				}
+				if (i + side < size) {
+					adjacency.link(i, i + side);
+				}
+			}
+			break;
+		}
+
+		case LATTICE_3D: {
+			int side = (int) Math.ceil(Math.cbrt(size));
+			int layer = side * side;
+			for (int i = 0; i < size; i++) {
+				if (i % side + 1 < side && i + 1 < size) {
+					adjacency.link(i, i + 1);
+				}
+				if ((i % layer) / side + 1 < side && i + side < size) {
+					adjacency.link(i, i + side);
+				}
+				if (i + layer < size) {
+					adjacency.link(i, i + layer);
+				}
+			}
+			break;
+		}
+
+		case ERDOS_RENYI: {
+			// the rejected pairs are drawn again, until the expected number
+			// of links is reached (at most the number of pairs of agents)
+			long edges = Math.min((long) size * degree / 2, (long) size
+					* (size - 1) / 2);
+			for (long e = 0; e < edges;) {
+				int i = random.nextInt(size);
+				int j = random.nextInt(size);
+				if (i != j && !adjacency.linked(i, j)) {
+					adjacency.link(i, j);
+					e++;
+				}
+			}
+			break;
+		}
+
+		case SCALE_FREE: {
+			int m = Math.max(1, degree / 2);
+
+			// each agent appears in this array once per link, so that
+			// picking a random element selects an agent with a probability
+			// proportional to its degree
+			int[] endpoints = new int[(int) Math.min(Integer.MAX_VALUE - 8,
+					2L * m * size)];
+			int count = 0;
+
+			for (int i = 1; i < size; i++) {
+				for (int k = 0; k < Math.min(m, i); k++) {
+					int j = count == 0 ? 0 : endpoints[random.nextInt(count)];
+					if (j != i && !adjacency.linked(i, j)
+							&& count + 2 <= endpoints.length) {
+						adjacency.link(i, j);
+						endpoints[count++] = i;
+						endpoints[count++] = j;
+					}
+				}
+			}
+			break;
+		}
+		}
+
+		return adjacency;
+	}
+
+	/**
+	 * The adjacency lists of the agents, stored as growable int arrays.
+	 */
+	private static final class Adjacency {
+
+		private final int[][] neighbors;
+		private final int[] degrees;
+
+		Adjacency(int size) {
+			this.neighbors = new int[size][];
+			this.degrees = new int[size];
+		}
+
+		void link(int i, int j) {
+			add(i, j);
+			add(j, i);
+		}
+
+		boolean linked(int i, int j) {
+			int[] n = neighbors[i];
+			for (int k = 0; k < degrees[i]; k++) {
+				if (n[k] == j) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void add(int i, int j) {
+			if (neighbors[i] == null) {
+				neighbors[i] = new int[4];
+			} else if (degrees[i] == neighbors[i].length) {
+				neighbors[i] = Arrays.copyOf(neighbors[i], degrees[i] * 2);
+			}
+			neighbors[i][degrees[i]++] = j;
+		}
+
+		/**
+		 * @return the ids of the neighbors of the agent
+		 */
+		List<String> ids(int i) {
+			final int[] n = neighbors[i];
+			final int d = degrees[i];
+			return new AbstractList<String>() {
+
+				@Override
+				public String get(int index) {
+					return Integer.toString(n[index]);
+				}
+
+				@Override
+				public int size() {
+					return d;
+				}
+
+			};
+		}
+
+		void release(int i) {
+			neighbors[i] = null;
+		}
+
+	}
+
+}
@@ -4,17 +4,70 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import javafly.CriticalityIndex;
+import javafly.FireflyRuntime;
+
 /**
  * This is a very simple example where the agents try to synchronize their
  * values by increasing or decreasing them.
  * 
+ * Without arguments, the example runs a chain of four agents. Otherwise, a
+ * population is generated (see {@link Generator}) from the following
+ * arguments: topology size [degree [seed]], for instance "LATTICE_2D 10000".
+ * 
  * @author jorquera
  *
  */
 public final class Main {
 
+	/**
+	 * the maximal number of agents whose state is displayed
+	 */
+	private static final int maxDisplayed = 10;
+
 	public static void main(String[] args) {
 
+		Environment env = args.length == 0 ? chain() : generate(args);
+
+		FireflyRuntime<Environment, Action, Double, SimpleFly> runtime = new FireflyRuntime<>(
+				env.refs.values(), env);
+
+		// the criticalities are only computed again for the agents whose
+		// neighborhood was modified
+		CriticalityIndex<Environment, Double, SimpleFly> index = new CriticalityIndex<>(
+				runtime.agents(), runtime.env(), 0.0);
+		runtime.setIndex(index);
+
+		System.out.println("--- INITIAL STATE");
+		printEnv(runtime.env(), index);
+
+		// run the system until it has converged
+		// (all criticalities are equal to 0), or until no agent can improve
+		// its neighborhood anymore
+		boolean converged = index.allZero();
+		while (!converged && !runtime.isQuiescent()) {
+
+			System.out.println("### TURN " + (runtime.rounds() + 1));
+
+			// the agents decide concurrently on the same environment, then
+			// their actions are applied in order (with the same result as if
+			// each agent decided and acted in sequence)
+			runtime.round();
+
+			// check if the system has converged
+			converged = index.allZero();
+
+			// display the environment state
+			printEnv(runtime.env(), index);
+		}
+		System.out.println(converged ? "--- SUCCESS !" : "--- STUCK !");
+
+	}
+
+	/**
+	 * @return the initial environment of a chain of four agents
+	 */
+	private static Environment chain() {
 		// initialize the environment
 		Map<String, SimpleFly> refs = new HashMap<>();
 		refs.put("a", new SimpleFly("a", Arrays.asList("b")));
@@ -28,46 +81,24 @@ public final class Main {
 		values.put("c", 3);
 		values.put("d", 6);
 
-		Environment env = new Environment(refs, values);
-
-		System.out.println("--- INITIAL STATE");
-		printEnv(env);
-
-		// run the system until it has converged
-		// (all criticalities are equal to 0)
-		int turn = 0;
-		boolean converged = false;
-		while (!converged) {
-
-			turn++;
-			System.out.println("### TURN " + turn);
-
-			// execute the decision-action of each agent in sequence, in order
-			// to change the environment
-			for (SimpleFly f : refs.values()) {
-				env = f.act(env, f.decision(env));
-			}
-			// check if the system has converged
-			converged = hasConverged(env);
-
-			// display the environment state
-			printEnv(env);
-		}
-		System.out.println("--- SUCCESS !");
-
+		return new Environment(refs, values);
 	}
 
 	/**
-	 * Check if the system has converged, that is, all the criticalities are
-	 * equal to 0)
-	 * 
-	 * @param env
-	 *            the current environment
-	 * @return true if the system has converged
+	 * @param args
+	 *            topology size [degree [seed]]
+	 * @return the initial environment of a generated population
 	 */
-	private static boolean hasConverged(final Environment env) {
-		return env.refs.values().stream()
-				.allMatch(f -> f.criticality(env) == 0);
+	private static Environment generate(String[] args) {
+		Generator generator = new Generator(Generator.Topology.valueOf(args[0]
+				.toUpperCase()), Integer.parseInt(args[1]));
+		if (args.length > 2) {
+			generator = generator.withDegree(Integer.parseInt(args[2]));
+		}
+		if (args.length > 3) {
+			generator = generator.withSeed(Long.parseLong(args[3]));
+		}
+		return generator.generate();
 	}
 
 	/**
@@ -75,16 +106,23 @@ public final class Main {
 	 * 
 	 * @param env
 	 *            the environment to display
+	 * @param index
+	 *            the criticalities of the agents in this environment
 	 */
-	private static void printEnv(final Environment env) {
+	private static void printEnv(final Environment env,
+			final CriticalityIndex<Environment, Double, SimpleFly> index) {
+		if (env.refs.size() > maxDisplayed) {
+			System.out.println(env.refs.size() + " agents, "
+					+ "max criticality: " + index.maxCriticality() + "\n");
+			return;
+		}
 		for (String s : env.refs.keySet()) {
-			System.out.print(s + ": ( value: " + env.values.get(s) + ", crit: "
-					+ env.refs.get(s).criticality(env) + " ) ");
+			System.out.print(s + ": ( value: " + env.value(s) + ", crit: "
+					+ index.criticality(env.refs.get(s)) + " ) ");
 
 		}
-		System.out.println("\nmax criticality: "
-				+ env.refs.values().stream().map(f -> f.criticality(env))
-						.max((v1, v2) -> v1.compareTo(v2)).get() + "\n");
+		System.out.println("\nmax criticality: " + index.maxCriticality()
+				+ "\n");
 	}
 
 }
@@ -1,12 +1,16 @@
 package javafly.example.simplefly;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
-import javafly.Firefly;
+import javafly.DecisionMonitor;
+import javafly.DoubleFirefly;
+import javafly.jfr.FlightRecorderMonitor;
+import javafly.util.ActionIndex;
+import javafly.util.ContradictionMatrix;
+import javafly.util.NeighborGraph;
 
 /**
  * Our simple agent implementation
@@ -15,7 +19,7 @@ import javafly.Firefly;
  *
  */
 public final class SimpleFly implements
-		Firefly<Environment, Action, Double, SimpleFly> {
+		DoubleFirefly<Environment, Action, SimpleFly> {
 
 	/**
 	 * the unique id of the agent
@@ -23,11 +27,13 @@ public final class SimpleFly implements
 	final String id;
 
 	/**
-	 * the neighbors of the agent (should include itself)
+	 * the ids of the neighbors of the agent (should include itself)
 	 * 
 	 * NOTE: in this application, the neighborhood is static. When it is not the
 	 * case, it should be included in the environment and not in the agent
-	 * itself (agents should be stateless).
+	 * itself (agents should be stateless). The neighbors are resolved once in
+	 * the neighbor graph shared by the environments (see
+	 * {@link Environment#graph}).
 	 * 
 	 */
 	private final List<String> neighbors;
@@ -38,7 +44,31 @@ public final class SimpleFly implements
 	private final Action incr;
 	private final Action decr;
 
+	/**
+	 * the alphabet of the possible actions, so that the sets of actions are
+	 * bitsets
+	 */
+	private final ActionIndex<Action> alphabet;
+
+	/**
+	 * the contradictions between the possible actions
+	 */
+	private final ContradictionMatrix<Action> contradictions;
+
+	/**
+	 * the monitor receiving the events of the decisions of the agent
+	 */
+	private final DecisionMonitor monitor;
+
+	/**
+	 * Creates an agent whose decisions are reported to the Java Flight
+	 * Recorder (see {@link FlightRecorderMonitor}).
+	 */
 	public SimpleFly(String id, List<String> neighbors) {
+		this(id, neighbors, FlightRecorderMonitor.INSTANCE);
+	}
+
+	public SimpleFly(String id, List<String> neighbors, DecisionMonitor monitor) {
 		super();
 
 		this.id = id;
@@ -49,6 +79,14 @@ public final class SimpleFly implements
 
 		this.incr = new Increase(id);
 		this.decr = new Decrease(id);
+		this.alphabet = ActionIndex.of(incr, decr);
+
+		// the two potential actions are mutually exclusive, whatever the
+		// environment
+		this.contradictions = ContradictionMatrix.empty(alphabet)
+				.withExclusive(incr, decr);
+
+		this.monitor = monitor;
 	}
 
 	@Override
@@ -56,12 +94,24 @@ public final class SimpleFly implements
 		return id;
 	}
 
+	/**
+	 * @return the ids of the neighbors of the agent, including itself
+	 */
+	List<String> neighborIds() {
+		return Collections.unmodifiableList(neighbors);
+	}
+
+	@Override
+	public DecisionMonitor monitor() {
+		return monitor;
+	}
+
 	@Override
 	public List<SimpleFly> predictedNeighbors(Environment e, Set<Action> a) {
 		// since the neighborhood is static, this function is very simple
-		// in this case we simply map the neighbors id to their references
-		return neighbors.stream().map(s -> e.refs.get(s))
-				.collect(Collectors.toList());
+		// in this case we simply return the view of the neighbors in the
+		// shared graph, which is not copied
+		return e.graph.neighbors(e.graph.ordinal(this));
 	}
 
 	@Override
@@ -70,9 +120,9 @@ public final class SimpleFly implements
 		// are only possible if the agent is not at the corresponding
 		// boundary
 
-		int currentValue = e.values.get(id);
+		int currentValue = e.value(id);
 
-		Set<Action> possibleActions = new HashSet<>();
+		Set<Action> possibleActions = alphabet.emptySet();
 		if (currentValue < Environment.maxValue) {
 			possibleActions.add(incr);
 		}
@@ -88,45 +138,46 @@ public final class SimpleFly implements
 	public Set<Action> contradictoryActions(Environment env, Set<Action> actions) {
 		// the two potential actions are mutually exclusive. If one is
 		// selected the other must be excluded
-		Set<Action> contradictActions = new HashSet<>();
-		if (actions.contains(incr)) {
-			contradictActions.add(decr);
-		}
-		if (actions.contains(decr)) {
-			contradictActions.add(incr);
-		}
-		return contradictActions;
+		return contradictions.contradictions(actions);
+	}
+
+	@Override
+	public ContradictionMatrix<Action> contradictionMatrix() {
+		return contradictions;
 	}
 
 	/*
 	 * Since this application is very simple, we will directly define the
-	 * criticality here. It will allow us to use it in the predictedCriticality
-	 * function (instead of doing it the other way, as it is the default in the
-	 * interface)
+	 * criticality here. It will allow us to use it in the
+	 * predictedCriticalityAsDouble function (instead of doing it the other
+	 * way, as it is the default in the interface)
 	 */
 	@Override
-	public Double criticality(Environment env) {
+	public double criticalityAsDouble(Environment env) {
 		// the criticality is the biggest distance between the value of the
 		// agent and the ones of its neighbors, divided by the max possible
 		// gap
 
-		final int value = env.values.get(id);
+		final int value = env.value(id);
+
+		// the neighbors are read directly from the links of the graph
+		final NeighborGraph<SimpleFly> graph = env.graph;
+		final int ordinal = graph.ordinal(this);
 
-		final int maxDist = this.predictedNeighbors(env, new HashSet<>())
-				.stream()
-				// map neighbors to their values and convert to distances
-				.map(f -> Math.abs(value - env.values.get(f.id)))
-				// get the biggest distance
-				.max((v1, v2) -> v1.compareTo(v2)).get();
+		int maxDist = 0;
+		for (int k = 0; k < graph.degree(ordinal); k++) {
+			SimpleFly f = graph.node(graph.neighbor(ordinal, k));
+			maxDist = Math.max(maxDist, Math.abs(value - env.value(f.id)));
+		}
 
 		// convert to criticality
 		return maxDist
-				/ new Double((Environment.maxValue - Environment.minValue));
+				/ (double) (Environment.maxValue - Environment.minValue);
 	}
 
 	@Override
-	public Double predictedCriticality(Environment env, Set<Action> actions,
-			Firefly<Environment, Action, Double, SimpleFly> agent) {
+	public double predictedCriticalityAsDouble(Environment env,
+			Set<Action> actions, DoubleFirefly<Environment, Action, SimpleFly> agent) {
 		// here we simulate a very simple prediction by directly calling the
 		// criticality function of the agent on the anticipated environment
 
@@ -136,13 +187,14 @@ public final class SimpleFly implements
 
 		Environment predictedEnv = env;
 		if (!actions.isEmpty()) {
-			// apply the selected action to the current environment
-			predictedEnv = actions.iterator().next().apply(env);
+			// predict the effect of the selected action on the current
+			// environment (without building a whole new environment)
+			predictedEnv = actions.iterator().next().predict(env);
 		}
 
 		// return the criticality of the agent in the predicted
 		// environment
-		return agent.criticality(predictedEnv);
+		return agent.criticalityAsDouble(predictedEnv);
 
 	}
 
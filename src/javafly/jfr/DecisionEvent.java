@@ -0,0 +1,37 @@
+package javafly.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event emitted for each decision of an agent (see
+ * {@link FlightRecorderMonitor}). The duration of the event is the duration
+ * of the decision.
+ * 
+ * @author jorquera
+ *
+ */
+@Name("javafly.Decision")
+@Label("Agent Decision")
+@Category("JavaFly")
+@Description("A decision of an agent")
+@StackTrace(false)
+public final class DecisionEvent extends Event {
+
+	@Label("Agent")
+	@Description("The agent which decided")
+	public String agent;
+
+	@Label("Candidates")
+	@Description("The number of actions possible for the agent")
+	public int candidates;
+
+	@Label("Selected")
+	@Description("The number of actions selected by the agent")
+	public int selected;
+
+}
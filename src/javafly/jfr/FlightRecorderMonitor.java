@@ -0,0 +1,66 @@
+package javafly.jfr;
+
+import javafly.DecisionMonitor;
+import jdk.jfr.EventType;
+
+/**
+ * <p>
+ * A {@link DecisionMonitor} which emits a {@link DecisionEvent} for each
+ * decision, with the agent and the number of candidate and selected actions.
+ * The event begins before the decision and ends after it, so that its start
+ * time and duration are those of the decision.
+ * </p>
+ * 
+ * <p>
+ * The monitor is only enabled while the event is enabled in a recording (for
+ * instance with -XX:StartFlightRecording), so that the decisions are not
+ * measured otherwise.
+ * </p>
+ * 
+ * @author jorquera
+ *
+ */
+public final class FlightRecorderMonitor implements DecisionMonitor {
+
+	/**
+	 * the shared instance
+	 */
+	public static final FlightRecorderMonitor INSTANCE = new FlightRecorderMonitor();
+
+	private static final EventType type = EventType
+			.getEventType(DecisionEvent.class);
+
+	private FlightRecorderMonitor() {
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return type.isEnabled();
+	}
+
+	@Override
+	public Object onDecisionStart(Object agent) {
+		DecisionEvent event = new DecisionEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void onDecision(Object agent, int candidates, int selected,
+			long nanos, Object context) {
+		// the recording may have started during the decision
+		if (!(context instanceof DecisionEvent)) {
+			return;
+		}
+
+		DecisionEvent event = (DecisionEvent) context;
+		event.end();
+		if (event.shouldCommit()) {
+			event.agent = String.valueOf(agent);
+			event.candidates = candidates;
+			event.selected = selected;
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+package javafly.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event emitted for each round of a
+ * {@link javafly.FireflyRuntime}. The duration of the event is the duration
+ * of the round.
+ * 
+ * @author jorquera
+ *
+ */
+@Name("javafly.Round")
+@Label("Runtime Round")
+@Category("JavaFly")
+@Description("A round of a runtime")
+@StackTrace(false)
+public final class RoundEvent extends Event {
+
+	@Label("Round")
+	@Description("The number of the round, starting at 1")
+	public int round;
+
+	@Label("Scheduled")
+	@Description("The number of agents scheduled for the round")
+	public int scheduled;
+
+	@Label("Decisions")
+	@Description("The number of decisions, including the new decisions of the agents perturbed during the round")
+	public int decisions;
+
+	@Label("Acting")
+	@Description("The number of agents which applied at least one action")
+	public int acting;
+
+	@Label("Max Criticality")
+	@Description("The maximum criticality of the agents at the end of the round, if an index is attached to the runtime and the criticalities are numbers (NaN otherwise)")
+	public double maxCriticality = Double.NaN;
+
+	@Label("Max Criticality Text")
+	@Description("The maximum criticality of the agents at the end of the round, if an index is attached to the runtime and the criticalities are not numbers")
+	public String maxCriticalityText;
+
+}
@@ -0,0 +1,161 @@
+package javafly.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A fixed alphabet of actions, where each action is identified by its ordinal.
+ * </p>
+ *
+ * <p>
+ * The sets of actions of an alphabet can be represented as {@link ActionSet}s,
+ * where each action is a bit. This is well suited to the agents whose possible
+ * actions are taken from a small, enumerable set (for instance increasing or
+ * decreasing a value): the sets copied and tested by the decision algorithm
+ * then fit in a single word.
+ * </p>
+ *
+ * <p>
+ * The index is immutable, and can be shared by several threads.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <A>
+ *            the type of the actions
+ */
+public final class ActionIndex<A> {
+
+	/**
+	 * the actions, by ordinal
+	 */
+	private final Object[] actions;
+
+	/**
+	 * maps the actions to their ordinal
+	 */
+	private final Map<Object, Integer> ordinals;
+
+	private ActionIndex(Object[] actions) {
+		this.actions = actions;
+		this.ordinals = new HashMap<>(actions.length * 2);
+
+		for (int i = 0; i < actions.length; i++) {
+			if (actions[i] == null) {
+				throw new NullPointerException("null action");
+			}
+			if (ordinals.put(actions[i], i) != null) {
+				throw new IllegalArgumentException("duplicate action: "
+						+ actions[i]);
+			}
+		}
+	}
+
+	/**
+	 * @param actions
+	 *            the actions of the alphabet, in the order of their ordinals
+	 * @return the index of the given actions
+	 */
+	@SafeVarargs
+	public static <A> ActionIndex<A> of(A... actions) {
+		// the elements are copied one by one, the varargs array itself never
+		// escapes
+		Object[] copy = new Object[actions.length];
+		for (int i = 0; i < actions.length; i++) {
+			copy[i] = actions[i];
+		}
+		return new ActionIndex<>(copy);
+	}
+
+	/**
+	 * @param actions
+	 *            the actions of the alphabet, in the order of their ordinals
+	 * @return the index of the given actions
+	 */
+	public static <A> ActionIndex<A> of(Collection<? extends A> actions) {
+		return new ActionIndex<>(actions.toArray());
+	}
+
+	/**
+	 * @return the number of actions of the alphabet
+	 */
+	public int size() {
+		return actions.length;
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of an action
+	 * @return the action of the given ordinal
+	 */
+	@SuppressWarnings("unchecked")
+	public A get(int ordinal) {
+		return (A) actions[ordinal];
+	}
+
+	/**
+	 * @param action
+	 *            an action
+	 * @return the ordinal of the action, or -1 if it does not belong to the
+	 *         alphabet
+	 */
+	public int ordinal(Object action) {
+		// linear search for the smallest alphabets, which is cheaper than
+		// hashing
+		if (actions.length <= 4) {
+			for (int i = 0; i < actions.length; i++) {
+				if (actions[i] == action) {
+					return i;
+				}
+			}
+		}
+		Integer ordinal = ordinals.get(action);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/**
+	 * @return the actions of the alphabet, in the order of their ordinals
+	 */
+	@SuppressWarnings("unchecked")
+	public List<A> actions() {
+		return (List<A>) Collections.unmodifiableList(Arrays.asList(actions));
+	}
+
+	/**
+	 * @return a new, empty set of actions of this alphabet
+	 */
+	public ActionSet<A> emptySet() {
+		return new ActionSet<>(this);
+	}
+
+	/**
+	 * @return a new set containing all the actions of this alphabet
+	 */
+	public ActionSet<A> allOf() {
+		ActionSet<A> set = new ActionSet<>(this);
+		set.addAllOrdinals();
+		return set;
+	}
+
+	/**
+	 * @param actions
+	 *            actions of this alphabet
+	 * @return a new set containing the given actions
+	 */
+	public ActionSet<A> setOf(Collection<? extends A> actions) {
+		ActionSet<A> set = new ActionSet<>(this);
+		set.addAll(actions);
+		return set;
+	}
+
+	@Override
+	public String toString() {
+		return "ActionIndex " + Arrays.toString(actions);
+	}
+
+}
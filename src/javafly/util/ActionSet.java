@@ -0,0 +1,327 @@
+package javafly.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * A mutable set of the actions of an {@link ActionIndex}, stored as a bitset
+ * of their ordinals.
+ * </p>
+ *
+ * <p>
+ * Adding, removing and testing an action only costs the lookup of its ordinal,
+ * and copying a set or combining two sets of the same alphabet (addAll,
+ * removeAll, retainAll, containsAll, equals) are word operations: a single one
+ * for the alphabets of at most 64 actions. The sets are equal to the other
+ * sets containing the same actions, and have the same hash code, as required
+ * by {@link Set}.
+ * </p>
+ *
+ * <p>
+ * The actions which do not belong to the alphabet cannot be added to the set.
+ * The set is not thread-safe.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <A>
+ *            the type of the actions
+ */
+public final class ActionSet<A> extends AbstractSet<A> {
+
+	private final ActionIndex<A> index;
+
+	/**
+	 * the bits of the ordinals of the actions
+	 */
+	private final long[] words;
+
+	ActionSet(ActionIndex<A> index) {
+		this(index, new long[Math.max(1, (index.size() + 63) >>> 6)]);
+	}
+
+	private ActionSet(ActionIndex<A> index, long[] words) {
+		this.index = index;
+		this.words = words;
+	}
+
+	/**
+	 * Copies a set of actions. The copy of an {@link ActionSet} is an
+	 * ActionSet of the same alphabet, which only copies its words.
+	 *
+	 * @param actions
+	 *            the set to copy
+	 * @return a new, mutable set containing the same actions
+	 */
+	public static <A> Set<A> copyOf(Set<A> actions) {
+		if (actions instanceof ActionSet) {
+			return ((ActionSet<A>) actions).copy();
+		}
+		return new HashSet<>(actions);
+	}
+
+	/**
+	 * @param actions
+	 *            a set of actions
+	 * @return a new, empty and mutable set, which is an {@link ActionSet} of
+	 *         the same alphabet if the given set is one
+	 */
+	public static <A> Set<A> emptyLike(Set<A> actions) {
+		if (actions instanceof ActionSet) {
+			return ((ActionSet<A>) actions).index.emptySet();
+		}
+		return new HashSet<>();
+	}
+
+	/**
+	 * @return the alphabet of the actions of the set
+	 */
+	public ActionIndex<A> index() {
+		return index;
+	}
+
+	/**
+	 * @return a new set containing the same actions
+	 */
+	public ActionSet<A> copy() {
+		return new ActionSet<>(index, words.clone());
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of an action of the alphabet
+	 * @return true if the action of the given ordinal belongs to the set
+	 */
+	public boolean containsOrdinal(int ordinal) {
+		return (words[ordinal >>> 6] & (1L << ordinal)) != 0;
+	}
+
+	/**
+	 * @param other
+	 *            a set of the same alphabet
+	 * @return true if the two sets have at least one action in common
+	 */
+	public boolean intersects(ActionSet<?> other) {
+		checkIndex(other);
+		for (int i = 0; i < words.length; i++) {
+			if ((words[i] & other.words[i]) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (long word : words) {
+			size += Long.bitCount(word);
+		}
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (long word : words) {
+			if (word != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		int ordinal = index.ordinal(o);
+		return ordinal >= 0 && containsOrdinal(ordinal);
+	}
+
+	@Override
+	public boolean add(A action) {
+		int ordinal = index.ordinal(action);
+		if (ordinal < 0) {
+			throw new IllegalArgumentException("not in the alphabet: " + action);
+		}
+		long word = words[ordinal >>> 6];
+		words[ordinal >>> 6] = word | (1L << ordinal);
+		return words[ordinal >>> 6] != word;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		int ordinal = index.ordinal(o);
+		if (ordinal < 0) {
+			return false;
+		}
+		long word = words[ordinal >>> 6];
+		words[ordinal >>> 6] = word & ~(1L << ordinal);
+		return words[ordinal >>> 6] != word;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(words, 0);
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends A> c) {
+		if (!sameIndex(c)) {
+			return super.addAll(c);
+		}
+		long[] other = ((ActionSet<?>) c).words;
+		boolean modified = false;
+		for (int i = 0; i < words.length; i++) {
+			long word = words[i];
+			words[i] |= other[i];
+			modified |= words[i] != word;
+		}
+		return modified;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		if (!sameIndex(c)) {
+			return super.removeAll(c);
+		}
+		long[] other = ((ActionSet<?>) c).words;
+		boolean modified = false;
+		for (int i = 0; i < words.length; i++) {
+			long word = words[i];
+			words[i] &= ~other[i];
+			modified |= words[i] != word;
+		}
+		return modified;
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		if (!sameIndex(c)) {
+			return super.retainAll(c);
+		}
+		long[] other = ((ActionSet<?>) c).words;
+		boolean modified = false;
+		for (int i = 0; i < words.length; i++) {
+			long word = words[i];
+			words[i] &= other[i];
+			modified |= words[i] != word;
+		}
+		return modified;
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		if (!sameIndex(c)) {
+			return super.containsAll(c);
+		}
+		long[] other = ((ActionSet<?>) c).words;
+		for (int i = 0; i < words.length; i++) {
+			if ((other[i] & ~words[i]) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (sameIndex(o)) {
+			return Arrays.equals(words, ((ActionSet<?>) o).words);
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		// the sum of the hash codes of the actions, as required by Set
+		int hash = 0;
+		for (int i = nextOrdinal(0); i >= 0; i = nextOrdinal(i + 1)) {
+			hash += index.get(i).hashCode();
+		}
+		return hash;
+	}
+
+	@Override
+	public Iterator<A> iterator() {
+		return new Iterator<A>() {
+
+			private int next = nextOrdinal(0);
+			private int last = -1;
+
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public A next() {
+				if (next < 0) {
+					throw new NoSuchElementException();
+				}
+				if (!containsOrdinal(next)) {
+					throw new ConcurrentModificationException();
+				}
+				last = next;
+				next = nextOrdinal(next + 1);
+				return index.get(last);
+			}
+
+			@Override
+			public void remove() {
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				words[last >>> 6] &= ~(1L << last);
+				last = -1;
+			}
+
+		};
+	}
+
+	/**
+	 * Adds all the actions of the alphabet.
+	 */
+	void addAllOrdinals() {
+		for (int i = 0; i < index.size(); i++) {
+			words[i >>> 6] |= 1L << i;
+		}
+	}
+
+	/**
+	 * @return the first ordinal of the set greater than or equal to the given
+	 *         one, or -1
+	 */
+	private int nextOrdinal(int from) {
+		int i = from >>> 6;
+		if (i >= words.length) {
+			return -1;
+		}
+		long word = words[i] & (-1L << from);
+		while (true) {
+			if (word != 0) {
+				return (i << 6) + Long.numberOfTrailingZeros(word);
+			}
+			if (++i == words.length) {
+				return -1;
+			}
+			word = words[i];
+		}
+	}
+
+	private boolean sameIndex(Object o) {
+		return o instanceof ActionSet && ((ActionSet<?>) o).index == index;
+	}
+
+	private void checkIndex(ActionSet<?> other) {
+		if (other.index != index) {
+			throw new IllegalArgumentException("different alphabets");
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package javafly.util;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * <p>
+ * The pairwise contradictions between the actions of an {@link ActionIndex},
+ * when they do not depend on the environment.
+ * </p>
+ *
+ * <p>
+ * The contradictions of each action are stored as an {@link ActionSet}. The
+ * candidates contradicting a newly selected action can thus be pruned with a
+ * single mask operation (see {@link #prune(Set, Object)}), instead of
+ * computing the contradictory actions of the whole selection for each
+ * candidate.
+ * </p>
+ *
+ * <p>
+ * The matrix is immutable: the with methods return a new matrix. It is
+ * typically built once by an agent, and shared by all its decisions.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <A>
+ *            the type of the actions
+ */
+public final class ContradictionMatrix<A> {
+
+	private final ActionIndex<A> index;
+
+	/**
+	 * the actions contradicting each action, by ordinal
+	 */
+	private final ActionSet<A>[] rows;
+
+	private ContradictionMatrix(ActionIndex<A> index, ActionSet<A>[] rows) {
+		this.index = index;
+		this.rows = rows;
+	}
+
+	/**
+	 * @param index
+	 *            the alphabet of the actions
+	 * @return a matrix where no action contradicts another
+	 */
+	@SuppressWarnings("unchecked")
+	public static <A> ContradictionMatrix<A> empty(ActionIndex<A> index) {
+		ActionSet<A>[] rows = (ActionSet<A>[]) new ActionSet<?>[index.size()];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = index.emptySet();
+		}
+		return new ContradictionMatrix<>(index, rows);
+	}
+
+	/**
+	 * @param a
+	 *            an action of the alphabet
+	 * @param b
+	 *            another action of the alphabet
+	 * @return a matrix where the two actions also contradict each other
+	 */
+	public ContradictionMatrix<A> withContradiction(A a, A b) {
+		int i = ordinal(a);
+		int j = ordinal(b);
+
+		ActionSet<A>[] newRows = Arrays.copyOf(rows, rows.length);
+		newRows[i] = rows[i].copy();
+		newRows[i].add(b);
+		newRows[j] = newRows[j].copy();
+		newRows[j].add(a);
+
+		return new ContradictionMatrix<>(index, newRows);
+	}
+
+	/**
+	 * @param group
+	 *            actions of the alphabet
+	 * @return a matrix where the given actions also contradict each other
+	 *         (at most one of them can be selected)
+	 */
+	@SafeVarargs
+	public final ContradictionMatrix<A> withExclusive(A... group) {
+		ContradictionMatrix<A> matrix = this;
+		for (int i = 0; i < group.length; i++) {
+			for (int j = i + 1; j < group.length; j++) {
+				matrix = matrix.withContradiction(group[i], group[j]);
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * @return the alphabet of the actions
+	 */
+	public ActionIndex<A> index() {
+		return index;
+	}
+
+	/**
+	 * @param a
+	 *            an action
+	 * @param b
+	 *            another action
+	 * @return true if the two actions belong to the alphabet and contradict
+	 *         each other
+	 */
+	public boolean contradicts(A a, Object b) {
+		int i = index.ordinal(a);
+		return i >= 0 && rows[i].contains(b);
+	}
+
+	/**
+	 * @param actions
+	 *            selected actions
+	 * @return a new set containing the actions which contradict at least one
+	 *         of the selected actions
+	 */
+	public ActionSet<A> contradictions(Set<A> actions) {
+		ActionSet<A> contradictions = index.emptySet();
+		for (A action : actions) {
+			int i = index.ordinal(action);
+			if (i >= 0) {
+				contradictions.addAll(rows[i]);
+			}
+		}
+		return contradictions;
+	}
+
+	/**
+	 * Removes the candidates which contradict a newly selected action. This is
+	 * a single mask operation when the candidates are an {@link ActionSet} of
+	 * the same alphabet.
+	 *
+	 * @param candidates
+	 *            the candidate actions, which are modified
+	 * @param selected
+	 *            the newly selected action
+	 */
+	public void prune(Set<A> candidates, A selected) {
+		int i = index.ordinal(selected);
+		if (i >= 0) {
+			candidates.removeAll(rows[i]);
+		}
+	}
+
+	private int ordinal(A action) {
+		int ordinal = index.ordinal(action);
+		if (ordinal < 0) {
+			throw new IllegalArgumentException("not in the alphabet: " + action);
+		}
+		return ordinal;
+	}
+
+}
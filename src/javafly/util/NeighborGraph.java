@@ -0,0 +1,211 @@
+package javafly.util;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * A static neighbor graph, where each node is identified by its ordinal.
+ * </p>
+ *
+ * <p>
+ * The links are stored in compressed sparse row form: the neighbors of all the
+ * nodes are stored in a single array of ordinals, and the neighbors of the
+ * node i are the ones between offsets[i] (included) and offsets[i + 1]
+ * (excluded). The graph can thus be shared by all the agents whose
+ * neighborhood is static, and iterating over the neighbors of a node does not
+ * allocate anything: the lists returned by {@link #neighbors(int)} are views
+ * created once with the graph.
+ * </p>
+ *
+ * <p>
+ * The graph is immutable, and can be shared by several threads.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <A>
+ *            the type of the nodes
+ */
+public final class NeighborGraph<A> {
+
+	/**
+	 * the nodes, by ordinal
+	 */
+	private final Object[] nodes;
+
+	/**
+	 * maps the nodes to their ordinal
+	 */
+	private final Map<Object, Integer> ordinals;
+
+	/**
+	 * the position of the first neighbor of each node in targets, by ordinal,
+	 * followed by the number of links
+	 */
+	private final int[] offsets;
+
+	/**
+	 * the ordinals of the neighbors of all the nodes
+	 */
+	private final int[] targets;
+
+	/**
+	 * the views of the neighbors of each node, by ordinal
+	 */
+	private final List<A>[] views;
+
+	@SuppressWarnings("unchecked")
+	private NeighborGraph(Object[] nodes, Map<Object, Integer> ordinals,
+			int[] offsets, int[] targets) {
+		this.nodes = nodes;
+		this.ordinals = ordinals;
+		this.offsets = offsets;
+		this.targets = targets;
+
+		this.views = (List<A>[]) new List<?>[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			views[i] = new Neighbors(offsets[i], offsets[i + 1]);
+		}
+	}
+
+	/**
+	 * @param nodes
+	 *            the nodes of the graph, in the order of their ordinals
+	 * @param neighbors
+	 *            the neighbors of each node, which must belong to the graph
+	 * @return the graph of the given nodes
+	 */
+	public static <A> NeighborGraph<A> of(Collection<? extends A> nodes,
+			Function<? super A, ? extends Collection<? extends A>> neighbors) {
+		Object[] array = nodes.toArray();
+		Map<Object, Integer> ordinals = new HashMap<>(array.length * 2);
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == null) {
+				throw new NullPointerException("null node");
+			}
+			if (ordinals.put(array[i], i) != null) {
+				throw new IllegalArgumentException("duplicate node: "
+						+ array[i]);
+			}
+		}
+
+		// first pass: the number of neighbors of each node
+		int[] offsets = new int[array.length + 1];
+		int i = 0;
+		for (A node : nodes) {
+			offsets[i + 1] = offsets[i] + neighbors.apply(node).size();
+			i++;
+		}
+
+		// second pass: the ordinals of the neighbors
+		int[] targets = new int[offsets[array.length]];
+		int position = 0;
+		for (A node : nodes) {
+			for (A neighbor : neighbors.apply(node)) {
+				Integer ordinal = ordinals.get(neighbor);
+				if (ordinal == null) {
+					throw new IllegalArgumentException("unknown neighbor "
+							+ neighbor + " of " + node);
+				}
+				targets[position++] = ordinal;
+			}
+		}
+
+		return new NeighborGraph<>(array, ordinals, offsets, targets);
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of a node
+	 * @return the node of the given ordinal
+	 */
+	@SuppressWarnings("unchecked")
+	public A node(int ordinal) {
+		return (A) nodes[ordinal];
+	}
+
+	/**
+	 * @param node
+	 *            a node
+	 * @return the ordinal of the node, or -1 if it does not belong to the graph
+	 */
+	public int ordinal(Object node) {
+		Integer ordinal = ordinals.get(node);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of a node
+	 * @return the number of neighbors of the node
+	 */
+	public int degree(int ordinal) {
+		return offsets[ordinal + 1] - offsets[ordinal];
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of a node
+	 * @param k
+	 *            the position of a neighbor of the node, between 0 and its
+	 *            degree (excluded)
+	 * @return the ordinal of the neighbor
+	 */
+	public int neighbor(int ordinal, int k) {
+		return targets[offsets[ordinal] + k];
+	}
+
+	/**
+	 * @param ordinal
+	 *            the ordinal of a node
+	 * @return an unmodifiable view of the neighbors of the node
+	 */
+	public List<A> neighbors(int ordinal) {
+		return views[ordinal];
+	}
+
+	/**
+	 * The neighbors of a node, read from the links of the graph.
+	 */
+	private final class Neighbors extends AbstractList<A> implements
+			RandomAccess {
+
+		private final int from;
+
+		private final int to;
+
+		private Neighbors(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public A get(int index) {
+			if (index < 0 || index >= to - from) {
+				throw new IndexOutOfBoundsException("index: " + index
+						+ ", size: " + (to - from));
+			}
+			return node(targets[from + index]);
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+
+	}
+
+}
@@ -0,0 +1,668 @@
+package javafly.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * An immutable map whose modifications return a new map sharing most of its
+ * structure with the original one.
+ * </p>
+ *
+ * <p>
+ * The map is implemented as a hash array mapped trie: each level of the trie
+ * consumes 5 bits of the hash of the keys, and the nodes only store the
+ * children which are present, indexed by a bitmap. Reading, adding or removing
+ * an entry thus costs O(log32(n)) in time, and a modification only copies the
+ * nodes on the path to the modified entry, instead of the whole map.
+ * </p>
+ *
+ * <p>
+ * This is well suited to the environments of the agents, which are immutable
+ * and are modified by each action: an action modifying one entry of a large
+ * environment only allocates a few small arrays.
+ * </p>
+ *
+ * <p>
+ * The map is read-only through the {@link Map} interface (the mutators throw
+ * an {@link UnsupportedOperationException}). It does not support null keys.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <K>
+ *            the type of the keys
+ * @param <V>
+ *            the type of the values
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> {
+
+	private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(
+			BitmapNode.EMPTY, 0);
+
+	/**
+	 * the number of bits of the hash consumed by each level of the trie
+	 */
+	private static final int BITS = 5;
+
+	/**
+	 * the root of the trie
+	 */
+	private final Node root;
+
+	/**
+	 * the number of entries
+	 */
+	private final int size;
+
+	private PersistentMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * @return the empty map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentMap<K, V> empty() {
+		return (PersistentMap<K, V>) EMPTY;
+	}
+
+	/**
+	 * Returns a persistent map containing the same entries as the given map.
+	 * If the given map is already a persistent map, it is returned as is.
+	 *
+	 * @param map
+	 *            the entries of the map
+	 * @return the persistent map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentMap<K, V> copyOf(
+			Map<? extends K, ? extends V> map) {
+		if (map instanceof PersistentMap) {
+			return (PersistentMap<K, V>) map;
+		}
+
+		PersistentMap<K, V> res = empty();
+		for (Map.Entry<? extends K, ? extends V> e : map.entrySet()) {
+			res = res.plus(e.getKey(), e.getValue());
+		}
+		return res;
+	}
+
+	/**
+	 * Returns a map where the given key is associated to the given value. The
+	 * current map is not modified.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the new map
+	 */
+	public PersistentMap<K, V> plus(K key, V value) {
+		boolean[] added = new boolean[1];
+		Node newRoot = root.assoc(0, hash(key), key, value, added);
+
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+	}
+
+	/**
+	 * Returns a map where the given keys are associated to the given values.
+	 * The current map is not modified.
+	 *
+	 * The entries are inserted in a single pass over the trie: each node on
+	 * the paths to the new entries is copied once, instead of once per entry
+	 * as with successive calls to {@link #plus(Object, Object)}.
+	 *
+	 * @param entries
+	 *            the entries to associate
+	 * @return the new map
+	 */
+	public PersistentMap<K, V> plusAll(Map<? extends K, ? extends V> entries) {
+		if (entries.size() <= 1) {
+			PersistentMap<K, V> res = this;
+			for (Map.Entry<? extends K, ? extends V> e : entries.entrySet()) {
+				res = res.plus(e.getKey(), e.getValue());
+			}
+			return res;
+		}
+
+		Leaf<?, ?>[] leaves = new Leaf<?, ?>[entries.size()];
+		int n = 0;
+		for (Map.Entry<? extends K, ? extends V> e : entries.entrySet()) {
+			leaves[n++] = new Leaf<>(hash(e.getKey()), e.getKey(),
+					e.getValue());
+		}
+
+		int[] added = new int[1];
+		Node newRoot = ((BitmapNode) root).assocAll(0, leaves, 0, n, added);
+
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentMap<>(newRoot, size + added[0]);
+	}
+
+	/**
+	 * Returns a map without the given key. The current map is not modified.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the new map
+	 */
+	public PersistentMap<K, V> minus(Object key) {
+		Node newRoot = root.without(0, hash(key), key);
+
+		if (newRoot == root) {
+			return this;
+		}
+		if (newRoot == null) {
+			return empty();
+		}
+		return new PersistentMap<>(newRoot, size - 1);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		Leaf<K, V> leaf = (Leaf<K, V>) root.find(0, hash(key), key);
+		return leaf == null ? null : leaf.getValue();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return root.find(0, hash(key), key) != null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator<>(root);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+		};
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the position of the bit corresponding to the given hash at the
+	 * given level.
+	 */
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & 0x1f);
+	}
+
+	/*
+	 * ///////////////////////////// TRIE NODES //////////////////////////////
+	 */
+
+	/**
+	 * An entry of the map, stored in the leaves of the trie.
+	 */
+	private static final class Leaf<K, V> extends
+			AbstractMap.SimpleImmutableEntry<K, V> {
+
+		private static final long serialVersionUID = 1L;
+
+		final int hash;
+
+		Leaf(int hash, K key, V value) {
+			super(key, value);
+			this.hash = hash;
+		}
+
+	}
+
+	/**
+	 * A node of the trie. Its array contains leaves and child nodes.
+	 */
+	private static abstract class Node {
+
+		final Object[] array;
+
+		Node(Object[] array) {
+			this.array = array;
+		}
+
+		/**
+		 * @return the leaf containing the key, or null
+		 */
+		abstract Leaf<?, ?> find(int shift, int hash, Object key);
+
+		/**
+		 * @return a node where the key is associated to the value, or this
+		 *         node if it already was the case
+		 */
+		abstract <K, V> Node assoc(int shift, int hash, K key, V value,
+				boolean[] added);
+
+		/**
+		 * @return a node without the key, this node if it did not contain the
+		 *         key, or null if the resulting node is empty
+		 */
+		abstract Node without(int shift, int hash, Object key);
+
+	}
+
+	/**
+	 * A node whose children are indexed by a bitmap of the 5 bits of the hash
+	 * corresponding to its level.
+	 */
+	private static final class BitmapNode extends Node {
+
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+
+		BitmapNode(int bitmap, Object[] array) {
+			super(array);
+			this.bitmap = bitmap;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		Leaf<?, ?> find(int shift, int hash, Object key) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return null;
+			}
+
+			Object o = array[index(bit)];
+			if (o instanceof Node) {
+				return ((Node) o).find(shift + BITS, hash, key);
+			}
+
+			Leaf<?, ?> leaf = (Leaf<?, ?>) o;
+			return leaf.hash == hash && leaf.getKey().equals(key) ? leaf
+					: null;
+		}
+
+		@Override
+		<K, V> Node assoc(int shift, int hash, K key, V value,
+				boolean[] added) {
+			int bit = bit(hash, shift);
+			int idx = index(bit);
+
+			if ((bitmap & bit) == 0) {
+				// free slot: insert a new leaf
+				Object[] newArray = new Object[array.length + 1];
+				System.arraycopy(array, 0, newArray, 0, idx);
+				newArray[idx] = new Leaf<>(hash, key, value);
+				System.arraycopy(array, idx, newArray, idx + 1, array.length
+						- idx);
+				added[0] = true;
+				return new BitmapNode(bitmap | bit, newArray);
+			}
+
+			Object o = array[idx];
+			Object replacement;
+
+			if (o instanceof Node) {
+				Node child = (Node) o;
+				Node newChild = child.assoc(shift + BITS, hash, key, value,
+						added);
+				if (newChild == child) {
+					return this;
+				}
+				replacement = newChild;
+			} else {
+				Leaf<?, ?> leaf = (Leaf<?, ?>) o;
+				if (leaf.hash == hash && leaf.getKey().equals(key)) {
+					if (leaf.getValue() == value) {
+						return this;
+					}
+					replacement = new Leaf<>(hash, key, value);
+				} else {
+					// two different keys in the same slot: push them down
+					replacement = merge(shift + BITS, leaf, new Leaf<>(hash,
+							key, value));
+					added[0] = true;
+				}
+			}
+
+			Object[] newArray = array.clone();
+			newArray[idx] = replacement;
+			return new BitmapNode(bitmap, newArray);
+		}
+
+		/**
+		 * Associates several leaves at once: this node is copied at most once,
+		 * and the leaves falling in the same child node are inserted in it
+		 * recursively.
+		 *
+		 * @return a node containing the leaves in the given range, or this
+		 *         node if it already was the case
+		 */
+		Node assocAll(int shift, Leaf<?, ?>[] leaves, int from, int to,
+				int[] added) {
+			sortBySlot(leaves, from, to, shift);
+
+			int newBitmap = bitmap;
+			for (int i = from; i < to; i++) {
+				newBitmap |= bit(leaves[i].hash, shift);
+			}
+
+			Object[] newArray = new Object[Integer.bitCount(newBitmap)];
+			boolean modified = newBitmap != bitmap;
+			int i = from;
+			int idx = 0;
+
+			for (int slot = 0; slot < 32; slot++) {
+				int bit = 1 << slot;
+				if ((newBitmap & bit) == 0) {
+					continue;
+				}
+
+				Object o = (bitmap & bit) == 0 ? null : array[index(bit)];
+
+				// the leaves falling in this slot
+				int end = i;
+				while (end < to && bit(leaves[end].hash, shift) == bit) {
+					end++;
+				}
+
+				Object replacement = o;
+				if (o instanceof BitmapNode && end - i > 1) {
+					replacement = ((BitmapNode) o).assocAll(shift + BITS,
+							leaves, i, end, added);
+				} else {
+					for (int j = i; j < end; j++) {
+						replacement = put(replacement, shift + BITS,
+								leaves[j], added);
+					}
+				}
+
+				modified |= replacement != o;
+				newArray[idx++] = replacement;
+				i = end;
+			}
+
+			return modified ? new BitmapNode(newBitmap, newArray) : this;
+		}
+
+		/**
+		 * Associates a leaf in the content of a slot (nothing, a leaf or a
+		 * node) at the given level.
+		 *
+		 * @return the new content of the slot
+		 */
+		private static Object put(Object o, int shift, Leaf<?, ?> leaf,
+				int[] added) {
+			if (o == null) {
+				added[0]++;
+				return leaf;
+			}
+
+			if (o instanceof Node) {
+				boolean[] a = new boolean[1];
+				Node res = ((Node) o).assoc(shift, leaf.hash, leaf.getKey(),
+						leaf.getValue(), a);
+				if (a[0]) {
+					added[0]++;
+				}
+				return res;
+			}
+
+			Leaf<?, ?> existing = (Leaf<?, ?>) o;
+			if (existing.hash == leaf.hash
+					&& existing.getKey().equals(leaf.getKey())) {
+				return existing.getValue() == leaf.getValue() ? existing
+						: leaf;
+			}
+			added[0]++;
+			return merge(shift, existing, leaf);
+		}
+
+		/**
+		 * Sorts the leaves in the given range by their slot at the given
+		 * level (counting sort).
+		 */
+		private static void sortBySlot(Leaf<?, ?>[] leaves, int from, int to,
+				int shift) {
+			int[] starts = new int[33];
+			for (int i = from; i < to; i++) {
+				starts[((leaves[i].hash >>> shift) & 0x1f) + 1]++;
+			}
+			for (int slot = 0; slot < 32; slot++) {
+				starts[slot + 1] += starts[slot];
+			}
+
+			Leaf<?, ?>[] sorted = new Leaf<?, ?>[to - from];
+			for (int i = from; i < to; i++) {
+				sorted[starts[(leaves[i].hash >>> shift) & 0x1f]++] = leaves[i];
+			}
+			System.arraycopy(sorted, 0, leaves, from, sorted.length);
+		}
+
+		@Override
+		Node without(int shift, int hash, Object key) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+
+			int idx = index(bit);
+			Object o = array[idx];
+
+			if (o instanceof Node) {
+				Node child = (Node) o;
+				Node newChild = child.without(shift + BITS, hash, key);
+				if (newChild == child) {
+					return this;
+				}
+				if (newChild != null) {
+					Object[] newArray = array.clone();
+					newArray[idx] = newChild;
+					return new BitmapNode(bitmap, newArray);
+				}
+			} else {
+				Leaf<?, ?> leaf = (Leaf<?, ?>) o;
+				if (!(leaf.hash == hash && leaf.getKey().equals(key))) {
+					return this;
+				}
+			}
+
+			// remove the slot
+			if (array.length == 1) {
+				return null;
+			}
+			Object[] newArray = new Object[array.length - 1];
+			System.arraycopy(array, 0, newArray, 0, idx);
+			System.arraycopy(array, idx + 1, newArray, idx, array.length - idx
+					- 1);
+			return new BitmapNode(bitmap & ~bit, newArray);
+		}
+
+		/**
+		 * Creates a node containing two leaves with different keys.
+		 */
+		private static Node merge(int shift, Leaf<?, ?> l1, Leaf<?, ?> l2) {
+			if (l1.hash == l2.hash) {
+				return new CollisionNode(l1.hash, new Object[] { l1, l2 });
+			}
+
+			int bit1 = bit(l1.hash, shift);
+			int bit2 = bit(l2.hash, shift);
+
+			if (bit1 == bit2) {
+				return new BitmapNode(bit1, new Object[] { merge(shift + BITS,
+						l1, l2) });
+			}
+			return new BitmapNode(bit1 | bit2,
+					Integer.compareUnsigned(bit1, bit2) < 0 ? new Object[] {
+							l1, l2 } : new Object[] { l2, l1 });
+		}
+
+	}
+
+	/**
+	 * A node containing leaves whose keys have the same hash.
+	 */
+	private static final class CollisionNode extends Node {
+
+		final int hash;
+
+		CollisionNode(int hash, Object[] leaves) {
+			super(leaves);
+			this.hash = hash;
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < array.length; i++) {
+				if (((Leaf<?, ?>) array[i]).getKey().equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Leaf<?, ?> find(int shift, int hash, Object key) {
+			if (hash != this.hash) {
+				return null;
+			}
+			int idx = indexOf(key);
+			return idx < 0 ? null : (Leaf<?, ?>) array[idx];
+		}
+
+		@Override
+		<K, V> Node assoc(int shift, int hash, K key, V value,
+				boolean[] added) {
+			if (hash != this.hash) {
+				// nest this node in a bitmap node to separate the hashes
+				return new BitmapNode(bit(this.hash, shift),
+						new Object[] { this }).assoc(shift, hash, key, value,
+						added);
+			}
+
+			int idx = indexOf(key);
+			Object[] newArray;
+			if (idx < 0) {
+				newArray = new Object[array.length + 1];
+				System.arraycopy(array, 0, newArray, 0, array.length);
+				newArray[array.length] = new Leaf<>(hash, key, value);
+				added[0] = true;
+			} else {
+				if (((Leaf<?, ?>) array[idx]).getValue() == value) {
+					return this;
+				}
+				newArray = array.clone();
+				newArray[idx] = new Leaf<>(hash, key, value);
+			}
+			return new CollisionNode(hash, newArray);
+		}
+
+		@Override
+		Node without(int shift, int hash, Object key) {
+			int idx = hash == this.hash ? indexOf(key) : -1;
+			if (idx < 0) {
+				return this;
+			}
+			if (array.length == 1) {
+				return null;
+			}
+
+			Object[] newArray = new Object[array.length - 1];
+			System.arraycopy(array, 0, newArray, 0, idx);
+			System.arraycopy(array, idx + 1, newArray, idx, array.length - idx
+					- 1);
+			return new CollisionNode(hash, newArray);
+		}
+
+	}
+
+	/**
+	 * Iterates over the leaves of the trie, depth first.
+	 */
+	private static final class EntryIterator<K, V> implements
+			Iterator<Map.Entry<K, V>> {
+
+		/**
+		 * the arrays of the nodes on the current path (the depth of the trie
+		 * is bounded by the number of bits of the hashes, plus a collision
+		 * node)
+		 */
+		private final Object[][] arrays = new Object[Integer.SIZE / BITS + 2][];
+
+		/**
+		 * the position in each array of the current path
+		 */
+		private final int[] positions = new int[arrays.length];
+
+		private int depth = 0;
+
+		private Leaf<K, V> next;
+
+		EntryIterator(Node root) {
+			arrays[0] = root.array;
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			next = null;
+			while (depth >= 0) {
+				Object[] array = arrays[depth];
+				if (positions[depth] == array.length) {
+					depth--;
+					continue;
+				}
+
+				Object o = array[positions[depth]++];
+				if (o instanceof Node) {
+					depth++;
+					arrays[depth] = ((Node) o).array;
+					positions[depth] = 0;
+				} else {
+					next = (Leaf<K, V>) o;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Leaf<K, V> res = next;
+			advance();
+			return res;
+		}
+
+	}
+
+}
@@ -0,0 +1,426 @@
+package javafly.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * An immutable index of the positions of agents in the plane, whose
+ * modifications return a new index sharing most of its structure with the
+ * original one.
+ * </p>
+ *
+ * <p>
+ * The plane is divided into square cells of a fixed size, and each cell stores
+ * the agents it contains along with their positions. The cells and the
+ * positions are stored in {@link PersistentMap}s: moving an agent only copies
+ * its old and new cells and the paths to them, so the index can be included in
+ * an immutable environment and updated by each action. Finding the agents
+ * within a radius of a point only reads the cells overlapping the disc, which
+ * is independent of the number of agents when the radius is close to the size
+ * of the cells. A query whose disc overlaps more cells than there are
+ * non-empty ones scans the non-empty cells instead.
+ * </p>
+ *
+ * <p>
+ * In order to evaluate hypothetical moves, an index can also be a predicted
+ * index: the predicted positions are recorded in a small overlay on top of the
+ * cells (see {@link #predict(Object, double, double)}), and are taken into
+ * account by all the queries. The cost of a prediction is thus proportional
+ * to the number of moved agents, not to the size of the index.
+ * </p>
+ *
+ * @author jorquera
+ *
+ * @param <A>
+ *            the type of the agents
+ */
+public final class SpatialGrid<A> {
+
+	private static final Object[] NO_AGENTS = new Object[0];
+	private static final double[] NO_COORDINATES = new double[0];
+
+	/**
+	 * the size of the side of the cells
+	 */
+	private final double cellSize;
+
+	/**
+	 * maps the agents to their position
+	 */
+	private final PersistentMap<Object, Point> positions;
+
+	/**
+	 * maps the keys of the non-empty cells to their content
+	 */
+	private final PersistentMap<Long, Cell> cells;
+
+	/**
+	 * the agents whose position is predicted (empty if this is not a predicted
+	 * index)
+	 */
+	private final Object[] overlayAgents;
+
+	/**
+	 * the predicted positions, in the order of overlayAgents
+	 */
+	private final double[] overlayXs;
+	private final double[] overlayYs;
+
+	private SpatialGrid(double cellSize, PersistentMap<Object, Point> positions,
+			PersistentMap<Long, Cell> cells, Object[] overlayAgents,
+			double[] overlayXs, double[] overlayYs) {
+		this.cellSize = cellSize;
+		this.positions = positions;
+		this.cells = cells;
+		this.overlayAgents = overlayAgents;
+		this.overlayXs = overlayXs;
+		this.overlayYs = overlayYs;
+	}
+
+	/**
+	 * @param cellSize
+	 *            the size of the side of the cells, which should be close to
+	 *            the radius of the queries
+	 * @return an empty index
+	 */
+	public static <A> SpatialGrid<A> empty(double cellSize) {
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("invalid cell size: "
+					+ cellSize);
+		}
+		return new SpatialGrid<>(cellSize, PersistentMap.empty(),
+				PersistentMap.empty(), NO_AGENTS, NO_COORDINATES,
+				NO_COORDINATES);
+	}
+
+	/**
+	 * @return the number of agents
+	 */
+	public int size() {
+		return positions.size();
+	}
+
+	/**
+	 * @param agent
+	 *            an agent
+	 * @return true if the agent has a position in this index
+	 */
+	public boolean contains(Object agent) {
+		return positions.containsKey(agent);
+	}
+
+	/**
+	 * @param agent
+	 *            an agent of the index
+	 * @return the abscissa of the agent, including the predicted positions
+	 */
+	public double x(Object agent) {
+		int i = overlayIndex(agent);
+		return i >= 0 ? overlayXs[i] : position(agent).x;
+	}
+
+	/**
+	 * @param agent
+	 *            an agent of the index
+	 * @return the ordinate of the agent, including the predicted positions
+	 */
+	public double y(Object agent) {
+		int i = overlayIndex(agent);
+		return i >= 0 ? overlayYs[i] : position(agent).y;
+	}
+
+	/**
+	 * Returns a new index where the given agent is at the given position (it
+	 * is added if it does not belong to the index yet). The predicted
+	 * positions, if any, become actual positions.
+	 *
+	 * @param agent
+	 *            the agent
+	 * @param x
+	 *            the new abscissa of the agent
+	 * @param y
+	 *            the new ordinate of the agent
+	 * @return the new index
+	 */
+	public SpatialGrid<A> withPosition(A agent, double x, double y) {
+		PersistentMap<Object, Point> newPositions = positions;
+		PersistentMap<Long, Cell> newCells = cells;
+
+		for (int i = 0; i < overlayAgents.length; i++) {
+			Point from = newPositions.get(overlayAgents[i]);
+			Point to = new Point(overlayXs[i], overlayYs[i]);
+			newCells = move(newCells, overlayAgents[i], from, to);
+			newPositions = newPositions.plus(overlayAgents[i], to);
+		}
+
+		Point from = newPositions.get(agent);
+		Point to = new Point(x, y);
+		newCells = move(newCells, agent, from, to);
+		newPositions = newPositions.plus(agent, to);
+
+		return new SpatialGrid<>(cellSize, newPositions, newCells, NO_AGENTS,
+				NO_COORDINATES, NO_COORDINATES);
+	}
+
+	/**
+	 * Returns a predicted index where the given agent is at the given
+	 * position. The cells of this index are shared, and only the predicted
+	 * position is recorded.
+	 *
+	 * @param agent
+	 *            an agent of the index
+	 * @param x
+	 *            the predicted abscissa of the agent
+	 * @param y
+	 *            the predicted ordinate of the agent
+	 * @return the predicted index
+	 */
+	public SpatialGrid<A> predict(A agent, double x, double y) {
+		position(agent);
+
+		int n = overlayAgents.length;
+		int i = overlayIndex(agent);
+		if (i >= 0) {
+			double[] newXs = overlayXs.clone();
+			double[] newYs = overlayYs.clone();
+			newXs[i] = x;
+			newYs[i] = y;
+			return new SpatialGrid<>(cellSize, positions, cells,
+					overlayAgents, newXs, newYs);
+		}
+
+		Object[] newAgents = new Object[n + 1];
+		double[] newXs = new double[n + 1];
+		double[] newYs = new double[n + 1];
+		System.arraycopy(overlayAgents, 0, newAgents, 0, n);
+		System.arraycopy(overlayXs, 0, newXs, 0, n);
+		System.arraycopy(overlayYs, 0, newYs, 0, n);
+		newAgents[n] = agent;
+		newXs[n] = x;
+		newYs[n] = y;
+		return new SpatialGrid<>(cellSize, positions, cells, newAgents, newXs,
+				newYs);
+	}
+
+	/**
+	 * @param agent
+	 *            an agent of the index
+	 * @param radius
+	 *            the radius of the query
+	 * @return the agents (including the given one) at a distance at most
+	 *         radius from the (predicted) position of the agent
+	 */
+	public List<A> neighborsWithin(A agent, double radius) {
+		return neighborsWithin(x(agent), y(agent), radius);
+	}
+
+	/**
+	 * @param x
+	 *            the abscissa of the center of the query
+	 * @param y
+	 *            the ordinate of the center of the query
+	 * @param radius
+	 *            the radius of the query, which may be infinite
+	 * @return the agents whose (predicted) position is at a distance at most
+	 *         radius from the center
+	 * @throws IllegalArgumentException
+	 *             if the radius is negative or NaN
+	 */
+	@SuppressWarnings("unchecked")
+	public List<A> neighborsWithin(double x, double y, double radius) {
+		if (!(radius >= 0)) {
+			throw new IllegalArgumentException("invalid radius: " + radius);
+		}
+		List<A> res = new ArrayList<>();
+		double radius2 = radius * radius;
+
+		double minX = Math.floor((x - radius) / cellSize);
+		double maxX = Math.floor((x + radius) / cellSize);
+		double minY = Math.floor((y - radius) / cellSize);
+		double maxY = Math.floor((y + radius) / cellSize);
+
+		// when the disc overlaps more cells than there are non-empty cells
+		// (or cells out of the range of the keys), the non-empty cells are
+		// scanned instead
+		if (inRange(minX) && inRange(maxX) && inRange(minY) && inRange(maxY)
+				&& (maxX - minX + 1) * (maxY - minY + 1) <= cells.size()) {
+			for (int cx = (int) minX; cx <= (int) maxX; cx++) {
+				for (int cy = (int) minY; cy <= (int) maxY; cy++) {
+					Cell cell = cells.get(key(cx, cy));
+					if (cell != null) {
+						collect(cell, x, y, radius2, res);
+					}
+				}
+			}
+		} else {
+			for (Cell cell : cells.values()) {
+				collect(cell, x, y, radius2, res);
+			}
+		}
+
+		for (int i = 0; i < overlayAgents.length; i++) {
+			if (distance2(x, y, overlayXs[i], overlayYs[i]) <= radius2) {
+				res.add((A) overlayAgents[i]);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Adds the agents of a cell within the radius of the center to res.
+	 */
+	@SuppressWarnings("unchecked")
+	private void collect(Cell cell, double x, double y, double radius2,
+			List<A> res) {
+		for (int i = 0; i < cell.agents.length; i++) {
+			// the agents whose position is predicted are tested separately
+			if (overlayAgents.length > 0 && overlayIndex(cell.agents[i]) >= 0) {
+				continue;
+			}
+			if (distance2(x, y, cell.xs[i], cell.ys[i]) <= radius2) {
+				res.add((A) cell.agents[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the coordinate of a cell can be used in a key (the
+	 *         bound excludes Integer.MAX_VALUE, so that the loops over the
+	 *         cells cannot overflow)
+	 */
+	private static boolean inRange(double cell) {
+		return cell >= Integer.MIN_VALUE && cell < Integer.MAX_VALUE;
+	}
+
+	private static double distance2(double x1, double y1, double x2,
+			double y2) {
+		double dx = x1 - x2;
+		double dy = y1 - y2;
+		return dx * dx + dy * dy;
+	}
+
+	private Point position(Object agent) {
+		Point position = positions.get(agent);
+		if (position == null) {
+			throw new IllegalArgumentException("unknown agent: " + agent);
+		}
+		return position;
+	}
+
+	private int overlayIndex(Object agent) {
+		// the overlay only contains the few agents moved by the tentative
+		// actions, so a linear search is enough
+		for (int i = 0; i < overlayAgents.length; i++) {
+			if (overlayAgents[i] == agent) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int cell(double coordinate) {
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	private static Long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	/**
+	 * @return the cells where the agent is moved from its old position (null
+	 *         if it is added) to its new position
+	 */
+	private PersistentMap<Long, Cell> move(PersistentMap<Long, Cell> cells,
+			Object agent, Point from, Point to) {
+		Long toKey = key(cell(to.x), cell(to.y));
+		if (from != null) {
+			Long fromKey = key(cell(from.x), cell(from.y));
+			Cell fromCell = cells.get(fromKey).without(agent);
+			if (fromKey.equals(toKey)) {
+				return cells.plus(toKey, fromCell.with(agent, to));
+			}
+			cells = fromCell.agents.length == 0 ? cells.minus(fromKey) : cells
+					.plus(fromKey, fromCell);
+		}
+		Cell toCell = cells.get(toKey);
+		return cells.plus(toKey,
+				(toCell == null ? Cell.EMPTY : toCell).with(agent, to));
+	}
+
+	/**
+	 * An immutable position.
+	 */
+	private static final class Point {
+
+		private final double x;
+		private final double y;
+
+		private Point(double x, double y) {
+			this.x = x;
+			this.y = y;
+		}
+
+	}
+
+	/**
+	 * The immutable content of a cell: its agents and their positions, in
+	 * parallel arrays so that the queries do not read the positions map.
+	 */
+	private static final class Cell {
+
+		private static final Cell EMPTY = new Cell(NO_AGENTS, NO_COORDINATES,
+				NO_COORDINATES);
+
+		private final Object[] agents;
+		private final double[] xs;
+		private final double[] ys;
+
+		private Cell(Object[] agents, double[] xs, double[] ys) {
+			this.agents = agents;
+			this.xs = xs;
+			this.ys = ys;
+		}
+
+		/**
+		 * @return a cell where the given agent is added at the given position
+		 */
+		private Cell with(Object agent, Point position) {
+			int n = agents.length;
+			Object[] newAgents = new Object[n + 1];
+			double[] newXs = new double[n + 1];
+			double[] newYs = new double[n + 1];
+			System.arraycopy(agents, 0, newAgents, 0, n);
+			System.arraycopy(xs, 0, newXs, 0, n);
+			System.arraycopy(ys, 0, newYs, 0, n);
+			newAgents[n] = agent;
+			newXs[n] = position.x;
+			newYs[n] = position.y;
+			return new Cell(newAgents, newXs, newYs);
+		}
+
+		/**
+		 * @return a cell where the given agent is removed
+		 */
+		private Cell without(Object agent) {
+			int n = agents.length;
+			for (int i = 0; i < n; i++) {
+				if (agents[i] == agent) {
+					Object[] newAgents = new Object[n - 1];
+					double[] newXs = new double[n - 1];
+					double[] newYs = new double[n - 1];
+					System.arraycopy(agents, 0, newAgents, 0, i);
+					System.arraycopy(agents, i + 1, newAgents, i, n - 1 - i);
+					System.arraycopy(xs, 0, newXs, 0, i);
+					System.arraycopy(xs, i + 1, newXs, i, n - 1 - i);
+					System.arraycopy(ys, 0, newYs, 0, i);
+					System.arraycopy(ys, i + 1, newYs, i, n - 1 - i);
+					return new Cell(newAgents, newXs, newYs);
+				}
+			}
+			return this;
+		}
+
+	}
+
+}